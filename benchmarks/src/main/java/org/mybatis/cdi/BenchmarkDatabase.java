@@ -0,0 +1,126 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.transaction.TransactionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.apache.ibatis.transaction.managed.ManagedTransactionFactory;
+
+import bitronix.tm.TransactionManagerServices;
+import bitronix.tm.resource.jdbc.PoolingDataSource;
+
+/**
+ * In-memory Derby databases shared by the benchmarks. Factories are built programmatically, without CDI, so each
+ * benchmark measures only the code path it names.
+ */
+final class BenchmarkDatabase {
+
+  private BenchmarkDatabase() {
+    // this class cannot be instantiated
+  }
+
+  /**
+   * Creates a factory on a new in-memory database, using pooled JDBC connections and local transactions.
+   *
+   * @param name the database name
+   * @return the factory
+   */
+  static SqlSessionFactory local(String name) {
+    PooledDataSource dataSource = new PooledDataSource("org.apache.derby.jdbc.EmbeddedDriver",
+        "jdbc:derby:memory:" + name + ";create=true", null, null);
+    return build(name, new JdbcTransactionFactory(), dataSource);
+  }
+
+  /**
+   * Creates a factory on a new in-memory XA database enlisted by the Bitronix transaction manager, which is configured
+   * without a journal.
+   *
+   * @param name the database name
+   * @return the factory
+   */
+  static SqlSessionFactory jta(String name) {
+    TransactionManagerServices.getConfiguration().setJournal("null").setDisableJmx(true);
+    PoolingDataSource dataSource = new PoolingDataSource();
+    dataSource.setUniqueName(name);
+    dataSource.setClassName("org.apache.derby.jdbc.EmbeddedXADataSource");
+    dataSource.setMaxPoolSize(4);
+    dataSource.setAllowLocalTransactions(true);
+    Properties properties = new Properties();
+    properties.setProperty("databaseName", "memory:" + name);
+    properties.setProperty("createDatabase", "create");
+    dataSource.setDriverProperties(properties);
+    dataSource.init();
+    return build(name, new ManagedTransactionFactory(), dataSource);
+  }
+
+  /**
+   * Creates a mapper bean already bound to the given manager, as the extension does at deployment.
+   *
+   * @param type the mapper type
+   * @param manager the manager
+   * @return the bean
+   */
+  @SuppressWarnings("unchecked")
+  static MyBatisBean bean(Class<?> type, SqlSessionManager manager) {
+    MyBatisBean bean = new MyBatisBean(type.getName(), (Class<Type>) type, Collections.<Annotation> emptySet(), null);
+    bean.bind(manager);
+    return bean;
+  }
+
+  private static SqlSessionFactory build(String name, TransactionFactory transactionFactory, DataSource dataSource) {
+    createSchema(dataSource);
+    Configuration configuration = new Configuration(new Environment(name, transactionFactory, dataSource));
+    configuration.addMapper(BenchmarkMapper.class);
+    configuration.addMapper(SharedBenchmarkMapper.class);
+    return new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+  private static void createSchema(DataSource dataSource) {
+    try {
+      Connection connection = dataSource.getConnection();
+      try {
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("create table items (id integer primary key, name varchar(64))");
+        statement.executeUpdate("insert into items (id, name) values (1, 'one')");
+        statement.close();
+        if (!connection.getAutoCommit()) {
+          connection.commit();
+        }
+      } finally {
+        connection.close();
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Unable to create the benchmark schema", e);
+    }
+  }
+
+}
@@ -0,0 +1,82 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import javax.interceptor.InvocationContext;
+
+/**
+ * Minimal {@code InvocationContext} that lets the benchmarks call an interceptor directly, without a container.
+ */
+final class BenchmarkInvocationContext implements InvocationContext {
+
+  private final Method method;
+
+  private final Callable<Object> target;
+
+  private final Map<String, Object> contextData = new HashMap<String, Object>();
+
+  BenchmarkInvocationContext(Method method, Callable<Object> target) {
+    this.method = method;
+    this.target = target;
+  }
+
+  @Override
+  public Object getTarget() {
+    return this.target;
+  }
+
+  @Override
+  public Object getTimer() {
+    return null;
+  }
+
+  @Override
+  public Method getMethod() {
+    return this.method;
+  }
+
+  @Override
+  public Constructor<?> getConstructor() {
+    return null;
+  }
+
+  @Override
+  public Object[] getParameters() {
+    return new Object[0];
+  }
+
+  @Override
+  public void setParameters(Object[] params) {
+    // not used
+  }
+
+  @Override
+  public Map<String, Object> getContextData() {
+    return this.contextData;
+  }
+
+  @Override
+  public Object proceed() throws Exception {
+    return this.target.call();
+  }
+
+}
@@ -0,0 +1,47 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+
+/**
+ * Entry point of the benchmarks jar. Accepts the usual JMH options and writes the results as JSON to
+ * {@code jmh-result.json} unless another result format or file is requested.
+ */
+public final class BenchmarkRunner {
+
+  private BenchmarkRunner() {
+    // this class cannot be instantiated
+  }
+
+  public static void main(String[] args) throws Exception {
+    List<String> options = new ArrayList<String>(Arrays.asList(args));
+    if (!options.contains("-rf")) {
+      options.add("-rf");
+      options.add("json");
+    }
+    if (!options.contains("-rff")) {
+      options.add("-rff");
+      options.add("jmh-result.json");
+    }
+    Main.main(options.toArray(new String[options.size()]));
+  }
+
+}
@@ -0,0 +1,155 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.inject.Instance;
+import javax.enterprise.util.TypeLiteral;
+import javax.transaction.UserTransaction;
+
+import org.apache.ibatis.session.SqlSessionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bitronix.tm.TransactionManagerServices;
+
+/**
+ * Overhead of the {@link JtaTransactionInterceptor} on top of the local one, with the Bitronix transaction manager
+ * running in process without a journal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JtaTransactionInterceptorBenchmark {
+
+  private JtaTransactionInterceptor interceptor;
+
+  private BenchmarkInvocationContext empty;
+
+  private BenchmarkInvocationContext touchOne;
+
+  @Setup
+  public void setUp() throws Exception {
+    final BenchmarkMapper mapper = (BenchmarkMapper) BenchmarkDatabase
+        .bean(BenchmarkMapper.class, SqlSessionManager.newInstance(BenchmarkDatabase.jta("jta")))
+        .create(null);
+    this.interceptor = new JtaTransactionInterceptor();
+    Field field = JtaTransactionInterceptor.class.getDeclaredField("userTransaction");
+    field.setAccessible(true);
+    field.set(this.interceptor, new FixedInstance<UserTransaction>(TransactionManagerServices.getTransactionManager()));
+    Method method = TransactionInterceptorBenchmark.Transactions.class.getMethod("transactional");
+    this.empty = new BenchmarkInvocationContext(method, new Callable<Object>() {
+      @Override
+      public Object call() {
+        return null;
+      }
+    });
+    this.touchOne = new BenchmarkInvocationContext(method, new Callable<Object>() {
+      @Override
+      public Object call() {
+        return mapper.getName(1);
+      }
+    });
+  }
+
+  @TearDown
+  public void tearDown() {
+    TransactionManagerServices.getTransactionManager().shutdown();
+  }
+
+  @Benchmark
+  public Object emptyTransaction() throws Exception {
+    return this.interceptor.invoke(this.empty);
+  }
+
+  @Benchmark
+  public Object touchOneFactory() throws Exception {
+    return this.interceptor.invoke(this.touchOne);
+  }
+
+  /**
+   * {@code Instance} that always returns the same object, standing in for the one injected by the container.
+   */
+  private static final class FixedInstance<T> implements Instance<T> {
+
+    private final T instance;
+
+    FixedInstance(T instance) {
+      this.instance = instance;
+    }
+
+    @Override
+    public T get() {
+      return this.instance;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      return Collections.singleton(this.instance).iterator();
+    }
+
+    @Override
+    public Instance<T> select(Annotation... qualifiers) {
+      return this;
+    }
+
+    @Override
+    public <U extends T> Instance<U> select(Class<U> subtype, Annotation... qualifiers) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <U extends T> Instance<U> select(TypeLiteral<U> subtype, Annotation... qualifiers) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isUnsatisfied() {
+      return false;
+    }
+
+    @Override
+    public boolean isAmbiguous() {
+      return false;
+    }
+
+    @Override
+    public void destroy(T instance) {
+      // nothing to do
+    }
+
+  }
+
+}
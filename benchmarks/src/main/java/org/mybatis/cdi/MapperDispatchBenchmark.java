@@ -0,0 +1,126 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a mapper call through the injected proxy compared with a plain MyBatis mapper and with the former
+ * reflective handler, which delegated to the MyBatis mapper proxy of the {@code SqlSessionManager}. All of them run on
+ * an already started session so the difference is the dispatch alone: the injected proxy on the session of a
+ * transaction bound to the benchmark thread, the reflective handler on a managed session of the manager.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperDispatchBenchmark {
+
+  private static final AtomicInteger DATABASES = new AtomicInteger();
+
+  private SqlSessionManager manager;
+
+  private SqlSession session;
+
+  private TransactionContext transaction;
+
+  private BenchmarkMapper cdiMapper;
+
+  private BenchmarkMapper rawMapper;
+
+  private BenchmarkMapper reflectiveMapper;
+
+  @Setup
+  public void setUp() throws NoSuchMethodException {
+    SqlSessionFactory factory = BenchmarkDatabase.local("dispatch" + DATABASES.incrementAndGet());
+    this.manager = SqlSessionManager.newInstance(factory);
+    this.manager.startManagedSession();
+    this.session = factory.openSession();
+    Method method = TransactionInterceptorBenchmark.Transactions.class.getMethod("transactional");
+    this.transaction = TransactionContext.begin(TransactionAttribute.of(method), method);
+    this.cdiMapper = (BenchmarkMapper) BenchmarkDatabase.bean(BenchmarkMapper.class, this.manager).create(null);
+    this.rawMapper = this.session.getMapper(BenchmarkMapper.class);
+    this.reflectiveMapper = (BenchmarkMapper) Proxy.newProxyInstance(BenchmarkMapper.class.getClassLoader(),
+        new Class[] { BenchmarkMapper.class }, new ReflectiveHandler(this.manager.getMapper(BenchmarkMapper.class)));
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.transaction.close();
+    this.session.close();
+    this.manager.close();
+  }
+
+  @Benchmark
+  public String cdiProxy() {
+    return this.cdiMapper.getName(1);
+  }
+
+  @Benchmark
+  public String rawMyBatisMapper() {
+    return this.rawMapper.getName(1);
+  }
+
+  @Benchmark
+  public String reflectiveDoubleProxy() {
+    return this.reflectiveMapper.getName(1);
+  }
+
+  /**
+   * The handler injected mappers used before they were dispatched through their {@code MapperMethod}.
+   */
+  private static final class ReflectiveHandler implements InvocationHandler {
+
+    private final Object mapper;
+
+    ReflectiveHandler(Object mapper) {
+      this.mapper = mapper;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      try {
+        return method.invoke(this.mapper, args);
+      } catch (InvocationTargetException e) {
+        throw e.getTargetException();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,74 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link MyBatisBean#create}, which runs for every injection point of a mapper. Run with {@code -prof gc} to
+ * see the allocation saved by shared mappers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MyBatisBeanBenchmark {
+
+  private MyBatisBean mapperBean;
+
+  private MyBatisBean sharedMapperBean;
+
+  private MyBatisBean sessionBean;
+
+  @Setup
+  public void setUp() {
+    SqlSessionManager manager = SqlSessionManager.newInstance(BenchmarkDatabase.local("beans"));
+    this.mapperBean = BenchmarkDatabase.bean(BenchmarkMapper.class, manager);
+    this.sharedMapperBean = BenchmarkDatabase.bean(SharedBenchmarkMapper.class, manager);
+    this.sessionBean = BenchmarkDatabase.bean(SqlSession.class, manager);
+  }
+
+  @Benchmark
+  public Object createMapper() {
+    return this.mapperBean.create(null);
+  }
+
+  @Benchmark
+  public Object createSharedMapper() {
+    return this.sharedMapperBean.create(null);
+  }
+
+  @Benchmark
+  public Object createSqlSession() {
+    return this.sessionBean.create(null);
+  }
+
+}
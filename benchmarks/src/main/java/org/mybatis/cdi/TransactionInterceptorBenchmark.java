@@ -0,0 +1,137 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.session.SqlSessionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overhead of {@link LocalTransactionInterceptor#invoke} with 1, 4 and 16 factories, when the transaction uses none,
+ * one or all of them, and when transactional calls are nested.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionInterceptorBenchmark {
+
+  @Param({ "1", "4", "16" })
+  public int factories;
+
+  private LocalTransactionInterceptor interceptor;
+
+  private BenchmarkMapper[] mappers;
+
+  private BenchmarkInvocationContext empty;
+
+  private BenchmarkInvocationContext touchOne;
+
+  private BenchmarkInvocationContext touchAll;
+
+  private BenchmarkInvocationContext nested;
+
+  @Setup
+  public void setUp() throws Exception {
+    this.interceptor = new LocalTransactionInterceptor();
+    this.mappers = new BenchmarkMapper[this.factories];
+    for (int i = 0; i < this.factories; i++) {
+      SqlSessionManager manager = SqlSessionManager
+          .newInstance(BenchmarkDatabase.local("tx" + this.factories + "_" + i));
+      this.mappers[i] = (BenchmarkMapper) BenchmarkDatabase.bean(BenchmarkMapper.class, manager).create(null);
+    }
+    Method method = Transactions.class.getMethod("transactional");
+    this.empty = new BenchmarkInvocationContext(method, new Callable<Object>() {
+      @Override
+      public Object call() {
+        return null;
+      }
+    });
+    this.touchOne = new BenchmarkInvocationContext(method, new Callable<Object>() {
+      @Override
+      public Object call() {
+        return TransactionInterceptorBenchmark.this.mappers[0].getName(1);
+      }
+    });
+    this.touchAll = new BenchmarkInvocationContext(method, new Callable<Object>() {
+      @Override
+      public Object call() {
+        String name = null;
+        for (BenchmarkMapper mapper : TransactionInterceptorBenchmark.this.mappers) {
+          name = mapper.getName(1);
+        }
+        return name;
+      }
+    });
+    final BenchmarkInvocationContext inner = this.touchOne;
+    this.nested = new BenchmarkInvocationContext(method, new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        return TransactionInterceptorBenchmark.this.interceptor.invoke(inner);
+      }
+    });
+  }
+
+  @Benchmark
+  public Object emptyTransaction() throws Exception {
+    return this.interceptor.invoke(this.empty);
+  }
+
+  @Benchmark
+  public Object touchOneFactory() throws Exception {
+    return this.interceptor.invoke(this.touchOne);
+  }
+
+  @Benchmark
+  public Object touchAllFactories() throws Exception {
+    return this.interceptor.invoke(this.touchAll);
+  }
+
+  @Benchmark
+  public Object nestedTransactions() throws Exception {
+    return this.interceptor.invoke(this.nested);
+  }
+
+  @Benchmark
+  public Object noTransaction() throws Exception {
+    return this.touchOne.proceed();
+  }
+
+  public static class Transactions {
+
+    @Transactional
+    public void transactional() {
+      // only its annotation is used
+    }
+
+  }
+
+}
@@ -0,0 +1,207 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.apache.ibatis.annotations.MapKey;
+import org.apache.ibatis.binding.BindingException;
+import org.apache.ibatis.binding.MapperMethod;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.ParamNameResolver;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionManager;
+
+/**
+ * Mapper method declaring a {@code Future} return type. The statement is run on the {@link MapperExecutors executor}
+ * of the factory, in a session of its own that is committed when the statement succeeds and closed in any case. It
+ * does not take part in the transaction of the caller.
+ * <p>
+ * The type argument of the {@code Future} is handled as the return type of a {@code MapperMethod}: selects return a
+ * collection or a single object, and inserts, updates and deletes return the number of rows as {@code Integer},
+ * {@code Long} or {@code Boolean}, or nothing as {@code Void}. Row bounds, result handlers, {@code @MapKey}, arrays
+ * and cursors are not supported, and such methods are rejected when they are bound.
+ */
+final class AsyncMapperMethod {
+
+  private final MapperMethod.SqlCommand command;
+
+  private final ParamNameResolver paramNameResolver;
+
+  private final Configuration configuration;
+
+  private final Class<?> resultType;
+
+  private final boolean returnsMany;
+
+  private final String namespace;
+
+  AsyncMapperMethod(Class<?> mapperInterface, Method method, Configuration configuration) {
+    this.command = new MapperMethod.SqlCommand(configuration, mapperInterface, method);
+    this.paramNameResolver = new ParamNameResolver(configuration, method);
+    this.configuration = configuration;
+    this.resultType = resultType(method.getGenericReturnType());
+    this.returnsMany = Collection.class.isAssignableFrom(this.resultType);
+    this.namespace = mapperInterface.getName();
+    validate(method);
+  }
+
+  /**
+   * Tells whether the given mapper method must be run asynchronously.
+   *
+   * @param method the mapper method
+   * @return true if it returns a {@code Future}
+   */
+  static boolean isAsync(Method method) {
+    return method.getReturnType() == Future.class;
+  }
+
+  private static Class<?> resultType(Type returnType) {
+    if (!(returnType instanceof ParameterizedType)) {
+      return Object.class;
+    }
+    Type resultType = ((ParameterizedType) returnType).getActualTypeArguments()[0];
+    if (resultType instanceof ParameterizedType) {
+      resultType = ((ParameterizedType) resultType).getRawType();
+    }
+    return resultType instanceof Class ? (Class<?>) resultType : Object.class;
+  }
+
+  private void validate(Method method) {
+    String name = this.command.getName();
+    for (Class<?> parameterType : method.getParameterTypes()) {
+      if (RowBounds.class.isAssignableFrom(parameterType) || ResultHandler.class.isAssignableFrom(parameterType)) {
+        throw new BindingException("Asynchronous mapper method " + name + " cannot take a "
+            + parameterType.getSimpleName() + ".");
+      }
+    }
+    if (this.command.getType() == SqlCommandType.SELECT) {
+      if (method.isAnnotationPresent(MapKey.class) || this.resultType.isArray()
+          || Cursor.class.isAssignableFrom(this.resultType) || this.resultType == Void.class) {
+        throw new BindingException("Asynchronous mapper method " + name + " has an unsupported return type: "
+            + method.getGenericReturnType());
+      }
+    } else if (this.command.getType() != SqlCommandType.FLUSH && this.resultType != Void.class
+        && this.resultType != Integer.class && this.resultType != Long.class && this.resultType != Boolean.class) {
+      throw new BindingException("Asynchronous mapper method " + name + " has an unsupported return type: "
+          + method.getGenericReturnType());
+    }
+  }
+
+  /**
+   * Submits the statement to the executor of the given manager.
+   *
+   * @param manager the manager to run the statement on, acquired by the caller
+   * @param args the arguments of the call
+   * @param stats the statistics of the method, or null if metrics are disabled
+   * @return the pending result
+   */
+  Future<Object> submit(final SqlSessionManager manager, final Object[] args, final Metrics.MapperMethodStats stats) {
+    // counted as in flight from the time it is queued, the caller holding the manager until then
+    InFlightManagers.retain(manager);
+    try {
+      return MapperExecutors.get(manager).submit(new Callable<Object>() {
+        @Override
+        public Object call() {
+          try {
+            return run(manager, args, stats);
+          } finally {
+            InFlightManagers.release(manager);
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      InFlightManagers.release(manager);
+      throw e;
+    }
+  }
+
+  private Object run(SqlSessionManager manager, Object[] args, Metrics.MapperMethodStats stats) {
+    long start = stats != null ? System.nanoTime() : 0L;
+    boolean failed = true;
+    SqlSession session = manager.openSession();
+    try {
+      Object result = execute(session, args);
+      session.commit();
+      if (ResultCaches.isActive() && this.command.getType() != SqlCommandType.SELECT) {
+        ResultCaches.written(this.namespace, false);
+      }
+      failed = false;
+      return result;
+    } finally {
+      session.close();
+      if (stats != null) {
+        stats.record(start, failed);
+      }
+    }
+  }
+
+  private Object execute(SqlSession session, Object[] args) {
+    Object param = this.paramNameResolver.getNamedParams(args);
+    String statement = this.command.getName();
+    switch (this.command.getType()) {
+      case INSERT:
+        return rowCountResult(session.insert(statement, param));
+      case UPDATE:
+        return rowCountResult(session.update(statement, param));
+      case DELETE:
+        return rowCountResult(session.delete(statement, param));
+      case SELECT:
+        return this.returnsMany ? selectMany(session, statement, param) : session.selectOne(statement, param);
+      case FLUSH:
+        return session.flushStatements();
+      default:
+        throw new BindingException("Unknown execution method for: " + statement);
+    }
+  }
+
+  private Object rowCountResult(int rowCount) {
+    if (this.resultType == Void.class) {
+      return null;
+    }
+    if (this.resultType == Long.class) {
+      return (long) rowCount;
+    }
+    if (this.resultType == Boolean.class) {
+      return rowCount > 0;
+    }
+    return rowCount;
+  }
+
+  private Object selectMany(SqlSession session, String statement, Object param) {
+    List<Object> list = session.selectList(statement, param);
+    if (this.resultType.isAssignableFrom(list.getClass())) {
+      return list;
+    }
+    // same as MapperMethod, for a declared collection a list cannot be assigned to
+    Object collection = this.configuration.getObjectFactory().create(this.resultType);
+    MetaObject metaObject = this.configuration.newMetaObject(collection);
+    metaObject.addAll(list);
+    return collection;
+  }
+
+}
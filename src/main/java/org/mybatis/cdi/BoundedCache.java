@@ -0,0 +1,539 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Concurrent MyBatis cache bounded by weight, the number of entries by default, with an optional time to live. It is
+ * meant to be produced as a CDI bean and selected with {@link Mapper#cache()}.
+ * <p>
+ * Lookups never block: they read a concurrent map and record the access in a lossy buffer, which is drained into the
+ * eviction policy by whichever thread gets the policy lock. The policy follows W-TinyLFU: new entries go to a small LRU
+ * window; entries leaving the window are admitted into the main segmented LRU only if a frequency sketch estimates they
+ * are used more often than the entry they would evict.
+ * <p>
+ * Cached objects are shared, not copied, so the results of cached statements must not be modified.
+ */
+public class BoundedCache implements Cache, CacheStatsMXBean {
+
+  private static final int READ_BUFFER_SIZE = 128;
+
+  private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+  private static final int DRAIN_MASK = READ_BUFFER_SIZE / 2 - 1;
+
+  private static final int NONE = 0;
+
+  private static final int WINDOW = 1;
+
+  private static final int PROBATION = 2;
+
+  private static final int PROTECTED = 3;
+
+  private final String id;
+
+  private final long maximumWeight;
+
+  private final long windowMaximum;
+
+  private final long protectedMaximum;
+
+  private final long timeToLive;
+
+  private final ConcurrentMap<Object, Node> data = new ConcurrentHashMap<Object, Node>();
+
+  private final ReentrantLock evictionLock = new ReentrantLock();
+
+  private final AtomicReferenceArray<Node> readBuffer = new AtomicReferenceArray<Node>(READ_BUFFER_SIZE);
+
+  private final AtomicLong reads = new AtomicLong();
+
+  private final FrequencySketch sketch;
+
+  private final NodeList window = new NodeList();
+
+  private final NodeList probation = new NodeList();
+
+  private final NodeList protectedSegment = new NodeList();
+
+  private long windowWeight;
+
+  private long protectedWeight;
+
+  private volatile long weight;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong evictions = new AtomicLong();
+
+  private final AtomicLong expirations = new AtomicLong();
+
+  /**
+   * Creates a cache holding at most the given weight, without time to live.
+   *
+   * @param id the id of the cache, usually the namespace of the mapper
+   * @param maximumWeight the maximum weight, which is the maximum number of entries unless {@link #weigh} is overridden
+   */
+  public BoundedCache(String id, long maximumWeight) {
+    this(id, maximumWeight, 0, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Creates a cache holding at most the given weight, whose entries expire the given time after they were put.
+   *
+   * @param id the id of the cache, usually the namespace of the mapper
+   * @param maximumWeight the maximum weight, which is the maximum number of entries unless {@link #weigh} is overridden
+   * @param timeToLive the time to live of the entries, 0 for none
+   * @param unit the unit of the time to live
+   */
+  public BoundedCache(String id, long maximumWeight, long timeToLive, TimeUnit unit) {
+    if (maximumWeight < 0 || timeToLive < 0) {
+      throw new IllegalArgumentException("The maximum weight and the time to live cannot be negative");
+    }
+    this.id = id;
+    this.maximumWeight = maximumWeight;
+    this.windowMaximum = Math.max(1, maximumWeight / 100);
+    this.protectedMaximum = (long) ((maximumWeight - this.windowMaximum) * 0.8);
+    this.timeToLive = unit.toNanos(timeToLive);
+    this.sketch = new FrequencySketch(maximumWeight);
+  }
+
+  /**
+   * Gets the weight of an entry. Override it to bound the cache by something else than the number of entries.
+   *
+   * @param key the key
+   * @param value the value
+   * @return the weight of the entry, 1 by default
+   */
+  protected int weigh(Object key, Object value) {
+    return 1;
+  }
+
+  @Override
+  public String getId() {
+    return this.id;
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Node node = this.data.get(key);
+    if (node == null) {
+      this.misses.incrementAndGet();
+      return null;
+    }
+    if (this.timeToLive > 0 && System.nanoTime() - node.expiresAt >= 0) {
+      expire(node);
+      this.misses.incrementAndGet();
+      return null;
+    }
+    this.hits.incrementAndGet();
+    long count = this.reads.getAndIncrement();
+    this.readBuffer.lazySet((int) count & READ_BUFFER_MASK, node);
+    if ((count & DRAIN_MASK) == DRAIN_MASK && this.evictionLock.tryLock()) {
+      try {
+        drainReadBuffer();
+      } finally {
+        this.evictionLock.unlock();
+      }
+    }
+    return node.value;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    int entryWeight = weigh(key, value);
+    Node node = new Node(key, value, entryWeight, this.timeToLive > 0 ? System.nanoTime() + this.timeToLive : 0L);
+    this.evictionLock.lock();
+    try {
+      drainReadBuffer();
+      boolean fits = entryWeight <= this.maximumWeight;
+      Node previous = fits ? this.data.put(key, node) : this.data.remove(key);
+      if (previous != null) {
+        unlink(previous);
+      }
+      if (fits) {
+        this.sketch.increment(key);
+        node.queue = WINDOW;
+        this.window.addLast(node);
+        this.windowWeight += entryWeight;
+        this.weight += entryWeight;
+        evict();
+      }
+    } finally {
+      this.evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    this.evictionLock.lock();
+    try {
+      Node node = this.data.remove(key);
+      if (node == null) {
+        return null;
+      }
+      unlink(node);
+      return node.value;
+    } finally {
+      this.evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    this.evictionLock.lock();
+    try {
+      for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+        this.readBuffer.set(i, null);
+      }
+      this.window.clear();
+      this.probation.clear();
+      this.protectedSegment.clear();
+      this.data.clear();
+      this.windowWeight = 0;
+      this.protectedWeight = 0;
+      this.weight = 0;
+    } finally {
+      this.evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public int getSize() {
+    return this.data.size();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public long getHits() {
+    return this.hits.get();
+  }
+
+  @Override
+  public long getMisses() {
+    return this.misses.get();
+  }
+
+  @Override
+  public double getHitRatio() {
+    long found = this.hits.get();
+    long total = found + this.misses.get();
+    return total == 0 ? 0.0 : (double) found / total;
+  }
+
+  @Override
+  public long getEvictions() {
+    return this.evictions.get();
+  }
+
+  @Override
+  public long getExpirations() {
+    return this.expirations.get();
+  }
+
+  @Override
+  public long getWeight() {
+    return this.weight;
+  }
+
+  @Override
+  public void reset() {
+    this.hits.set(0);
+    this.misses.set(0);
+    this.evictions.set(0);
+    this.expirations.set(0);
+  }
+
+  private void expire(Node node) {
+    this.evictionLock.lock();
+    try {
+      if (this.data.remove(node.key, node)) {
+        unlink(node);
+        this.expirations.incrementAndGet();
+      }
+    } finally {
+      this.evictionLock.unlock();
+    }
+  }
+
+  private void drainReadBuffer() {
+    for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+      Node node = this.readBuffer.getAndSet(i, null);
+      if (node != null) {
+        onAccess(node);
+      }
+    }
+  }
+
+  private void onAccess(Node node) {
+    switch (node.queue) {
+      case WINDOW:
+        this.sketch.increment(node.key);
+        this.window.moveToLast(node);
+        break;
+      case PROBATION:
+        this.sketch.increment(node.key);
+        this.probation.remove(node);
+        protect(node);
+        break;
+      case PROTECTED:
+        this.sketch.increment(node.key);
+        this.protectedSegment.moveToLast(node);
+        break;
+      default:
+        // removed in the meantime
+    }
+  }
+
+  private void protect(Node node) {
+    node.queue = PROTECTED;
+    this.protectedSegment.addLast(node);
+    this.protectedWeight += node.weight;
+    while (this.protectedWeight > this.protectedMaximum) {
+      Node demoted = this.protectedSegment.head;
+      this.protectedSegment.remove(demoted);
+      this.protectedWeight -= demoted.weight;
+      demoted.queue = PROBATION;
+      this.probation.addLast(demoted);
+    }
+  }
+
+  private void evict() {
+    while (this.windowWeight > this.windowMaximum) {
+      Node candidate = this.window.head;
+      this.window.remove(candidate);
+      this.windowWeight -= candidate.weight;
+      candidate.queue = PROBATION;
+      this.probation.addLast(candidate);
+    }
+    while (this.weight > this.maximumWeight) {
+      Node victim = this.probation.head;
+      Node evicted;
+      if (victim == null) {
+        evicted = this.protectedSegment.head != null ? this.protectedSegment.head : this.window.head;
+      } else {
+        // the newest entry of probation came from the window and must beat the oldest one to be admitted
+        Node candidate = this.probation.tail;
+        boolean admit = candidate == victim || this.sketch.frequency(candidate.key) > this.sketch.frequency(victim.key);
+        evicted = admit ? victim : candidate;
+      }
+      this.data.remove(evicted.key, evicted);
+      unlink(evicted);
+      this.evictions.incrementAndGet();
+    }
+  }
+
+  private void unlink(Node node) {
+    switch (node.queue) {
+      case WINDOW:
+        this.window.remove(node);
+        this.windowWeight -= node.weight;
+        break;
+      case PROBATION:
+        this.probation.remove(node);
+        break;
+      case PROTECTED:
+        this.protectedSegment.remove(node);
+        this.protectedWeight -= node.weight;
+        break;
+      default:
+        return;
+    }
+    node.queue = NONE;
+    this.weight -= node.weight;
+  }
+
+  private static final class Node {
+
+    private final Object key;
+
+    private final Object value;
+
+    private final int weight;
+
+    private final long expiresAt;
+
+    // guarded by the eviction lock
+    private int queue;
+
+    private Node previous;
+
+    private Node next;
+
+    Node(Object key, Object value, int weight, long expiresAt) {
+      this.key = key;
+      this.value = value;
+      this.weight = weight;
+      this.expiresAt = expiresAt;
+    }
+
+  }
+
+  /**
+   * Doubly linked list of nodes, from the least to the most recently used.
+   */
+  private static final class NodeList {
+
+    private Node head;
+
+    private Node tail;
+
+    void addLast(Node node) {
+      node.previous = this.tail;
+      node.next = null;
+      if (this.tail == null) {
+        this.head = node;
+      } else {
+        this.tail.next = node;
+      }
+      this.tail = node;
+    }
+
+    void remove(Node node) {
+      if (node.previous == null) {
+        this.head = node.next;
+      } else {
+        node.previous.next = node.next;
+      }
+      if (node.next == null) {
+        this.tail = node.previous;
+      } else {
+        node.next.previous = node.previous;
+      }
+      node.previous = null;
+      node.next = null;
+    }
+
+    void moveToLast(Node node) {
+      if (node != this.tail) {
+        remove(node);
+        addLast(node);
+      }
+    }
+
+    void clear() {
+      for (Node node = this.head; node != null;) {
+        Node next = node.next;
+        node.queue = NONE;
+        node.previous = null;
+        node.next = null;
+        node = next;
+      }
+      this.head = null;
+      this.tail = null;
+    }
+
+  }
+
+  /**
+   * Count-min sketch of 4-bit counters estimating how often keys were used recently. All the counters are halved once
+   * the number of increments reaches ten times the width of the sketch, so that old popularity fades.
+   */
+  private static final class FrequencySketch {
+
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+        0xcbf29ce484222325L };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+
+    private final int tableMask;
+
+    private final int sampleSize;
+
+    private int size;
+
+    FrequencySketch(long maximumSize) {
+      int capacity = 16;
+      while (capacity < maximumSize && capacity < (1 << 24)) {
+        capacity <<= 1;
+      }
+      this.table = new long[capacity];
+      this.tableMask = capacity - 1;
+      this.sampleSize = 10 * capacity;
+    }
+
+    int frequency(Object key) {
+      int hash = spread(key.hashCode());
+      int start = (hash & 3) << 2;
+      int frequency = Integer.MAX_VALUE;
+      for (int i = 0; i < 4; i++) {
+        int index = indexOf(hash, i);
+        int count = (int) ((this.table[index] >>> ((start + i) << 2)) & 0xfL);
+        frequency = Math.min(frequency, count);
+      }
+      return frequency;
+    }
+
+    void increment(Object key) {
+      int hash = spread(key.hashCode());
+      int start = (hash & 3) << 2;
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        added |= incrementAt(indexOf(hash, i), start + i);
+      }
+      if (added && ++this.size == this.sampleSize) {
+        halve();
+      }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+      int offset = counter << 2;
+      long mask = 0xfL << offset;
+      if ((this.table[index] & mask) != mask) {
+        this.table[index] += 1L << offset;
+        return true;
+      }
+      return false;
+    }
+
+    private void halve() {
+      for (int i = 0; i < this.table.length; i++) {
+        this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+      }
+      this.size >>>= 1;
+    }
+
+    private int indexOf(int hash, int i) {
+      long h = (hash + SEEDS[i]) * SEEDS[i];
+      h += h >>> 32;
+      return (int) h & this.tableMask;
+    }
+
+    private static int spread(int hash) {
+      int h = hash * 0x9e3779b9;
+      return h ^ (h >>> 16);
+    }
+
+  }
+
+}
@@ -16,6 +16,7 @@
 package org.mybatis.cdi;
 
 import java.lang.annotation.Annotation;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 import javax.enterprise.context.spi.CreationalContext;
@@ -25,6 +26,7 @@ import javax.enterprise.inject.spi.Bean;
 import javax.enterprise.inject.spi.BeanManager;
 import javax.enterprise.inject.spi.CDI;
 import javax.enterprise.util.AnnotationLiteral;
+import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.session.SqlSessionFactory;
 
 /**
@@ -44,7 +46,17 @@ public final class CDIUtils {
    * @return the registry
    */
   public static SqlSessionManagerRegistry getRegistry(CreationalContext creationalContext) {
-    final BeanManager beanManager = CDI.current().getBeanManager();
+    return getRegistry(CDI.current().getBeanManager(), creationalContext);
+  }
+
+  /**
+   * Gets the registry using the given bean manager.
+   *
+   * @param beanManager the bean manager
+   * @param creationalContext the creational context
+   * @return the registry
+   */
+  public static SqlSessionManagerRegistry getRegistry(BeanManager beanManager, CreationalContext creationalContext) {
     Iterator<Bean<?>> beans = beanManager.getBeans(SqlSessionManagerRegistry.class).iterator();
     return (SqlSessionManagerRegistry) beanManager.getReference(beans.next(), SqlSessionManagerRegistry.class,
         creationalContext);
@@ -60,7 +72,20 @@ public final class CDIUtils {
    */
   public static SqlSessionFactory findSqlSessionFactory(String name, Set<Annotation> qualifiers,
       CreationalContext creationalContext) {
-    final BeanManager beanManager = CDI.current().getBeanManager();
+    return findSqlSessionFactory(CDI.current().getBeanManager(), name, qualifiers, creationalContext);
+  }
+
+  /**
+   * Find sql session factory using the given bean manager.
+   *
+   * @param beanManager the bean manager
+   * @param name the name
+   * @param qualifiers the qualifiers
+   * @param creationalContext the creational context
+   * @return the sql session factory
+   */
+  public static SqlSessionFactory findSqlSessionFactory(BeanManager beanManager, String name,
+      Set<Annotation> qualifiers, CreationalContext creationalContext) {
     Set<Bean<?>> beans;
     if (name != null) {
       beans = beanManager.getBeans(name);
@@ -74,6 +99,28 @@ public final class CDIUtils {
     return (SqlSessionFactory) beanManager.getReference(bean, SqlSessionFactory.class, creationalContext);
   }
 
+  /**
+   * Find the cache with the given name.
+   *
+   * @param beanManager the bean manager
+   * @param name the name of the cache bean
+   * @param creationalContext the creational context
+   * @return the cache
+   */
+  public static Cache findCache(BeanManager beanManager, String name, CreationalContext creationalContext) {
+    Set<Bean<?>> beans = new HashSet<Bean<?>>();
+    for (Bean<?> bean : beanManager.getBeans(name)) {
+      if (bean.getTypes().contains(Cache.class)) {
+        beans.add(bean);
+      }
+    }
+    Bean bean = beanManager.resolve(beans);
+    if (bean == null) {
+      throw new MybatisCdiConfigurationException("There is no Cache producer named " + name + ".");
+    }
+    return (Cache) beanManager.getReference(bean, Cache.class, creationalContext);
+  }
+
   public static class SerializableDefaultAnnotationLiteral extends AnnotationLiteral<Default> {
     private static final long serialVersionUID = 1L;
   }
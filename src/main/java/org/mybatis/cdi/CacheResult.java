@@ -0,0 +1,65 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the results of the annotated mapper method, by factory and arguments. The entries are dropped when a write
+ * made through a mapper or {@code SqlSession} of the same namespace, or of one of the {@link #tags()}, is committed.
+ * Uncommitted and rolled back writes leave them in place, and a transaction that wrote to one of these namespaces
+ * bypasses the cache until it ends.
+ * <p>
+ * Results are shared by all the callers and must not be modified. The arguments are compared with {@code equals}, so
+ * they should be values.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CacheResult {
+
+  /**
+   * Returns how long a result is kept once it has been loaded.
+   *
+   * @return 0, without time limit, by default, user defined otherwise.
+   */
+  long ttl() default 0;
+
+  /**
+   * Returns the unit of the {@link #ttl()}.
+   *
+   * @return TimeUnit.SECONDS by default, user defined otherwise.
+   */
+  TimeUnit unit() default TimeUnit.SECONDS;
+
+  /**
+   * Returns the maximum number of results kept for the method.
+   *
+   * @return 1000 by default, user defined otherwise.
+   */
+  long maximumSize() default 1000;
+
+  /**
+   * Returns other namespaces, such as the names of other mappers, whose committed writes also invalidate the results.
+   *
+   * @return none by default, user defined otherwise.
+   */
+  String[] tags() default {};
+
+}
@@ -0,0 +1,62 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+/**
+ * Statistics of a {@link BoundedCache}, published when {@link MybatisCdiProperties#METRICS} is enabled.
+ */
+public interface CacheStatsMXBean {
+
+  long getHits();
+
+  long getMisses();
+
+  /**
+   * Gets the share of lookups that found an entry.
+   *
+   * @return the hit ratio, between 0 and 1, or 0 if nothing has been looked up yet
+   */
+  double getHitRatio();
+
+  /**
+   * Gets the number of entries evicted to keep the cache within its maximum weight.
+   *
+   * @return the number of evictions
+   */
+  long getEvictions();
+
+  /**
+   * Gets the number of entries removed because their time to live had passed.
+   *
+   * @return the number of expirations
+   */
+  long getExpirations();
+
+  int getSize();
+
+  /**
+   * Gets the weight of the entries, which is their number unless {@link BoundedCache#weigh} is overridden.
+   *
+   * @return the total weight
+   */
+  long getWeight();
+
+  /**
+   * Sets the counters back to zero, leaving the entries in place.
+   */
+  void reset();
+
+}
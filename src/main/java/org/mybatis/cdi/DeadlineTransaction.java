@@ -0,0 +1,84 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.transaction.Transaction;
+
+/**
+ * MyBatis transaction that reports the time left before a deadline as its timeout, which MyBatis applies as query
+ * timeout to each statement it prepares. Once the deadline has passed, preparing a statement fails.
+ */
+final class DeadlineTransaction implements Transaction {
+
+  private final Transaction delegate;
+
+  private final long deadline;
+
+  DeadlineTransaction(Transaction delegate, long deadline) {
+    this.delegate = delegate;
+    this.deadline = deadline;
+  }
+
+  /**
+   * Gets the number of seconds left, rounded up.
+   *
+   * @param deadline the deadline, in {@link System#nanoTime()} units
+   * @return the seconds left, or 0 if the deadline has passed
+   */
+  static int secondsLeft(long deadline) {
+    long left = deadline - System.nanoTime();
+    if (left <= 0) {
+      return 0;
+    }
+    return (int) Math.min(Integer.MAX_VALUE, (left + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+  }
+
+  @Override
+  public Integer getTimeout() throws SQLException {
+    int seconds = secondsLeft(this.deadline);
+    if (seconds == 0) {
+      throw new SQLTimeoutException("Transaction timed out");
+    }
+    Integer timeout = this.delegate.getTimeout();
+    return timeout == null || timeout > seconds ? seconds : timeout;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return this.delegate.getConnection();
+  }
+
+  @Override
+  public void commit() throws SQLException {
+    this.delegate.commit();
+  }
+
+  @Override
+  public void rollback() throws SQLException {
+    this.delegate.rollback();
+  }
+
+  @Override
+  public void close() throws SQLException {
+    this.delegate.close();
+  }
+
+}
@@ -0,0 +1,121 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.sql.Connection;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.session.TransactionIsolationLevel;
+import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.TransactionFactory;
+import org.apache.ibatis.transaction.managed.ManagedTransactionFactory;
+
+/**
+ * Transaction factory set on the environment of the registered factories. It opens the transactions of the factory it
+ * replaces, wrapped in a {@link DeadlineTransaction} when the session is opened for a transaction with a timeout.
+ */
+final class DeadlineTransactionFactory implements TransactionFactory {
+
+  private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<Long>();
+
+  private final TransactionFactory delegate;
+
+  private DeadlineTransactionFactory(TransactionFactory delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Wraps the transaction factory of the environment of the given configuration, unless it is already wrapped.
+   *
+   * @param configuration the configuration of a factory
+   */
+  static void install(Configuration configuration) {
+    synchronized (configuration) {
+      Environment environment = configuration.getEnvironment();
+      if (environment == null || environment.getTransactionFactory() instanceof DeadlineTransactionFactory) {
+        return;
+      }
+      TransactionFactory transactionFactory = environment.getTransactionFactory() != null
+          ? environment.getTransactionFactory() : new ManagedTransactionFactory();
+      configuration.setEnvironment(new Environment(environment.getId(),
+          new DeadlineTransactionFactory(transactionFactory), environment.getDataSource()));
+    }
+  }
+
+  /**
+   * Opens a session whose statements get the time left before the deadline as query timeout.
+   *
+   * @param manager the manager to open the session on
+   * @param execType the executor type
+   * @param level the isolation level, may be null
+   * @param deadline the deadline, in {@link System#nanoTime()} units
+   * @return the session
+   * @throws MybatisCdiConfigurationException if the session was not opened on a transaction of this factory
+   */
+  static SqlSession openSession(SqlSessionManager manager, ExecutorType execType, TransactionIsolationLevel level,
+      long deadline) {
+    install(manager.getConfiguration());
+    SqlSession session;
+    boolean applied;
+    DEADLINE.set(deadline);
+    try {
+      session = manager.openSession(execType, level);
+    } finally {
+      applied = DEADLINE.get() == null;
+      DEADLINE.remove();
+    }
+    if (!applied) {
+      session.close();
+      throw new MybatisCdiConfigurationException("Unable to apply the timeout of the transaction to factory "
+          + manager.getConfiguration().getEnvironment().getId()
+          + ": it does not open its transactions with the transaction factory of its environment.");
+    }
+    return session;
+  }
+
+  @Override
+  public void setProperties(Properties props) {
+    this.delegate.setProperties(props);
+  }
+
+  @Override
+  public Transaction newTransaction(Connection conn) {
+    return withDeadline(this.delegate.newTransaction(conn));
+  }
+
+  @Override
+  public Transaction newTransaction(DataSource dataSource, TransactionIsolationLevel level, boolean autoCommit) {
+    return withDeadline(this.delegate.newTransaction(dataSource, level, autoCommit));
+  }
+
+  private static Transaction withDeadline(Transaction transaction) {
+    Long deadline = DEADLINE.get();
+    if (deadline == null) {
+      return transaction;
+    }
+    // consumed, which tells openSession the deadline has been applied
+    DEADLINE.remove();
+    return new DeadlineTransaction(transaction, deadline);
+  }
+
+}
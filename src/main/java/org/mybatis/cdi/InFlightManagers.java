@@ -0,0 +1,200 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.session.SqlSessionManager;
+
+/**
+ * Counts the transactions and calls running on the managers that may be closed while the application runs, so that
+ * they are closed only once the work in flight has drained. Managers that are not tracked cost one volatile read.
+ * <p>
+ * The count of a manager and whether it is retired are a single atomic state: once a manager is retired it cannot be
+ * acquired anymore, so a caller that resolved it just before resolves the manager again instead of running on a
+ * closed data source.
+ */
+final class InFlightManagers {
+
+  private static final int RETIRED = 1;
+
+  private static final int ONE = 2;
+
+  private static final ConcurrentMap<SqlSessionManager, Usage> TRACKED =
+      new ConcurrentHashMap<SqlSessionManager, Usage>();
+
+  // drained managers, still referenced by the mappers bound to them until those are collected
+  private static final Map<SqlSessionManager, Boolean> DRAINED =
+      Collections.synchronizedMap(new WeakHashMap<SqlSessionManager, Boolean>());
+
+  private static volatile boolean active;
+
+  private InFlightManagers() {
+    // this class cannot be instantiated
+  }
+
+  /**
+   * Starts counting the work running on a manager.
+   *
+   * @param manager the manager
+   */
+  static void track(SqlSessionManager manager) {
+    TRACKED.putIfAbsent(manager, new Usage());
+    active = true;
+  }
+
+  /**
+   * Counts a transaction or a call starting on a manager that has just been resolved.
+   *
+   * @param manager the manager
+   * @return false if the manager has been retired, in which case it must not be used and nothing was counted
+   */
+  static boolean acquire(SqlSessionManager manager) {
+    if (!active) {
+      return true;
+    }
+    Usage usage = TRACKED.get(manager);
+    if (usage != null) {
+      return usage.acquire();
+    }
+    return !DRAINED.containsKey(manager);
+  }
+
+  /**
+   * Counts one more transaction or call on a manager the caller has already {@link #acquire acquired}, which therefore
+   * cannot have drained, even if it has been retired since.
+   *
+   * @param manager the manager
+   */
+  static void retain(SqlSessionManager manager) {
+    if (active) {
+      Usage usage = TRACKED.get(manager);
+      if (usage != null) {
+        usage.state.addAndGet(ONE);
+      }
+    }
+  }
+
+  /**
+   * Counts a transaction or a call that ended on a manager, closing the manager if it was retired and nothing else
+   * runs on it.
+   *
+   * @param manager the manager
+   */
+  static void release(SqlSessionManager manager) {
+    if (active) {
+      Usage usage = TRACKED.get(manager);
+      if (usage != null && usage.state.addAndGet(-ONE) == RETIRED) {
+        usage.drained(manager);
+      }
+    }
+  }
+
+  /**
+   * Runs the given task once nothing runs on the manager anymore, right away if nothing does, and stops tracking it.
+   * The manager cannot be acquired anymore.
+   *
+   * @param manager the manager no longer handed out
+   * @param onDrained what closes the manager
+   */
+  static void retire(SqlSessionManager manager, Runnable onDrained) {
+    Usage usage = TRACKED.get(manager);
+    if (usage == null) {
+      DRAINED.put(manager, Boolean.TRUE);
+      onDrained.run();
+      return;
+    }
+    usage.onDrained = onDrained;
+    if (usage.retire()) {
+      usage.drained(manager);
+    }
+  }
+
+  /**
+   * Tells how many transactions and calls run on a manager.
+   *
+   * @param manager the manager
+   * @return the work in flight, 0 if the manager is not tracked
+   */
+  static int getInFlight(SqlSessionManager manager) {
+    Usage usage = TRACKED.get(manager);
+    return usage != null ? usage.state.get() / ONE : 0;
+  }
+
+  /**
+   * Stops tracking all the managers. Called when the container shuts down.
+   */
+  static void reset() {
+    TRACKED.clear();
+    DRAINED.clear();
+    active = false;
+  }
+
+  private static final class Usage {
+
+    // the work in flight times ONE, plus RETIRED once retired
+    private final AtomicInteger state = new AtomicInteger();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private volatile Runnable onDrained;
+
+    boolean acquire() {
+      while (true) {
+        int current = this.state.get();
+        if ((current & RETIRED) != 0) {
+          return false;
+        }
+        if (this.state.compareAndSet(current, current + ONE)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * Marks the manager retired.
+     *
+     * @return true if nothing runs on it
+     */
+    boolean retire() {
+      while (true) {
+        int current = this.state.get();
+        if ((current & RETIRED) != 0) {
+          return false;
+        }
+        if (this.state.compareAndSet(current, current | RETIRED)) {
+          return current == 0;
+        }
+      }
+    }
+
+    void drained(SqlSessionManager manager) {
+      if (this.closed.compareAndSet(false, true)) {
+        DRAINED.put(manager, Boolean.TRUE);
+        TRACKED.remove(manager, this);
+        this.onDrained.run();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,177 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.enterprise.inject.Instance;
+import javax.enterprise.inject.spi.CDI;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.session.TransactionIsolationLevel;
+
+/**
+ * Sessions bound to JTA transactions through the {@code TransactionSynchronizationRegistry}. The first use of a factory
+ * in a JTA transaction opens a session, stores it as a resource of the transaction and registers a synchronization
+ * that flushes it before completion and closes it after, whatever the outcome. Sessions are therefore only opened on
+ * the factories actually used, and they are shared by all the calls made in the transaction. The calls made outside of
+ * the {@link JtaTransactionInterceptor}, such as those of container managed transactions, join it only when
+ * {@link MybatisCdiProperties#JTA_SESSIONS} is set.
+ * <p>
+ * The registry is a {@code TransactionSynchronizationRegistry} bean if there is one, or the one bound to
+ * {@code java:comp/TransactionSynchronizationRegistry}. It is looked up once.
+ */
+final class JtaSessions {
+
+  static final String REGISTRY_JNDI_NAME = "java:comp/TransactionSynchronizationRegistry";
+
+  static final boolean ENABLED = MybatisCdiProperties.isJtaSessions();
+
+  private static final Logger LOGGER = Logger.getLogger(JtaSessions.class.getName());
+
+  private static volatile TransactionSynchronizationRegistry registry;
+
+  private static volatile boolean lookedUp;
+
+  private JtaSessions() {
+    // this class cannot be instantiated
+  }
+
+  /**
+   * Gets the synchronization registry, looking it up the first time.
+   *
+   * @return the registry or null if there is none
+   */
+  static TransactionSynchronizationRegistry getRegistry() {
+    if (!lookedUp) {
+      lookUp();
+    }
+    return registry;
+  }
+
+  private static synchronized void lookUp() {
+    if (lookedUp) {
+      return;
+    }
+    Instance<TransactionSynchronizationRegistry> beans = null;
+    try {
+      beans = CDI.current().select(TransactionSynchronizationRegistry.class);
+    } catch (IllegalStateException e) {
+      // not running in a container
+    }
+    if (beans != null && !beans.isUnsatisfied() && !beans.isAmbiguous()) {
+      registry = beans.get();
+    } else {
+      try {
+        registry = (TransactionSynchronizationRegistry) new InitialContext().lookup(REGISTRY_JNDI_NAME);
+      } catch (NamingException e) {
+        LOGGER.log(Level.FINE, "MyBatis CDI Module - No TransactionSynchronizationRegistry found", e);
+      }
+    }
+    lookedUp = true;
+  }
+
+  /**
+   * Forgets the registry. Called when the container shuts down.
+   */
+  static synchronized void reset() {
+    registry = null;
+    lookedUp = false;
+  }
+
+  /**
+   * Gets the session bound to the active JTA transaction on the given manager, if there is a registry and a
+   * transaction. Used by the calls made outside of the {@link JtaTransactionInterceptor} when {@link #ENABLED}.
+   *
+   * @param manager the manager about to be used
+   * @return the session, or null if there is no JTA transaction
+   */
+  static SqlSession enlist(SqlSessionManager manager) {
+    TransactionSynchronizationRegistry current = getRegistry();
+    return current != null ? enlist(current, manager, ExecutorType.SIMPLE, null, 0, 0L) : null;
+  }
+
+  /**
+   * Gets the session bound to the active JTA transaction on the given manager, opening it with the given settings the
+   * first time the manager is used in the transaction.
+   *
+   * @param registry the registry
+   * @param manager the manager about to be used, acquired by the caller
+   * @param executorType the executor type of a new session
+   * @param isolationLevel the isolation level of a new session
+   * @param timeout the timeout of the transaction in seconds, 0 if it has none
+   * @param deadline the deadline of the transaction if it has a timeout, in {@link System#nanoTime()} units
+   * @return the session, or null if there is no active JTA transaction
+   */
+  static SqlSession enlist(TransactionSynchronizationRegistry registry, SqlSessionManager manager,
+      ExecutorType executorType, TransactionIsolationLevel isolationLevel, int timeout, long deadline) {
+    if (registry.getTransactionKey() == null) {
+      return null;
+    }
+    SqlSession session = (SqlSession) registry.getResource(manager);
+    if (session == null && registry.getTransactionStatus() == Status.STATUS_ACTIVE) {
+      session = timeout == 0 ? manager.openSession(executorType, isolationLevel)
+          : DeadlineTransactionFactory.openSession(manager, executorType, isolationLevel, deadline);
+      try {
+        registry.registerInterposedSynchronization(new SessionSynchronization(manager, session));
+      } catch (RuntimeException e) {
+        session.close();
+        throw e;
+      }
+      // keeps the manager open until the transaction completes
+      InFlightManagers.retain(manager);
+      registry.putResource(manager, session);
+    }
+    return session;
+  }
+
+  private static final class SessionSynchronization implements Synchronization {
+
+    private final SqlSessionManager manager;
+
+    private final SqlSession session;
+
+    SessionSynchronization(SqlSessionManager manager, SqlSession session) {
+      this.manager = manager;
+      this.session = session;
+    }
+
+    @Override
+    public void beforeCompletion() {
+      // flushes batched statements and clears the local cache, the JTA transaction does the rest
+      this.session.commit();
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+      try {
+        this.session.close();
+      } finally {
+        InFlightManagers.release(this.manager);
+      }
+    }
+
+  }
+
+}
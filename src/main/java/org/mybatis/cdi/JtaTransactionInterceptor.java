@@ -20,14 +20,25 @@ import javax.inject.Inject;
 import javax.interceptor.Interceptor;
 import javax.transaction.HeuristicMixedException;
 import javax.transaction.HeuristicRollbackException;
+import javax.transaction.InvalidTransactionException;
 import javax.transaction.NotSupportedException;
 import javax.transaction.RollbackException;
 import javax.transaction.Status;
 import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.transaction.UserTransaction;
 
 /**
  * Interceptor for JTA transactions. MyBatis should be configured to use the {@code MANAGED} transaction manager.
+ * <p>
+ * Suspending the JTA transaction, for {@link Propagation#REQUIRES_NEW} and {@link Propagation#NOT_SUPPORTED}, needs a
+ * {@code TransactionManager} bean.
+ * <p>
+ * When a {@code TransactionSynchronizationRegistry} is available, the sessions are bound to the JTA transaction by
+ * {@link JtaSessions}: they are flushed and closed by the JTA transaction itself when it completes, instead of being
+ * committed and closed by the interceptor. The {@code UserTransaction} and the registry are resolved once.
  *
  * @author Eduardo Macarrón
  */
@@ -40,14 +51,43 @@ public class JtaTransactionInterceptor extends LocalTransactionInterceptor {
   @Inject
   private transient Instance<UserTransaction> userTransaction;
 
+  @Inject
+  private transient Instance<TransactionManager> transactionManager;
+
+  private transient UserTransaction resolvedUserTransaction;
+
+  /**
+   * JTA transactions are bound to the thread, so they are always completed when the method returns.
+   */
+  @Override
+  protected boolean supportsCursorStreaming() {
+    return false;
+  }
+
   @Override
   protected boolean isTransactionActive() throws SystemException {
-    return this.userTransaction.get().getStatus() != Status.STATUS_NO_TRANSACTION;
+    return getUserTransaction().getStatus() != Status.STATUS_NO_TRANSACTION;
   }
 
   @Override
   protected void beginJta() throws NotSupportedException, SystemException {
-    this.userTransaction.get().begin();
+    getUserTransaction().begin();
+  }
+
+  @Override
+  protected void beginJta(int timeout) throws NotSupportedException, SystemException {
+    if (timeout == 0) {
+      beginJta();
+      return;
+    }
+    UserTransaction transaction = getUserTransaction();
+    transaction.setTransactionTimeout(timeout);
+    try {
+      transaction.begin();
+    } finally {
+      // the timeout applies to the transactions begun afterwards on this thread
+      transaction.setTransactionTimeout(0);
+    }
   }
 
   @Override
@@ -55,15 +95,47 @@ public class JtaTransactionInterceptor extends LocalTransactionInterceptor {
       throws SystemException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
     if (isExternaTransaction) {
       if (needsRollback) {
-        this.userTransaction.get().setRollbackOnly();
+        getUserTransaction().setRollbackOnly();
       }
     } else {
       if (needsRollback) {
-        this.userTransaction.get().rollback();
+        getUserTransaction().rollback();
       } else {
-        this.userTransaction.get().commit();
+        getUserTransaction().commit();
       }
     }
   }
 
+  @Override
+  protected Object suspendJta() throws SystemException {
+    return getTransactionManager().suspend();
+  }
+
+  @Override
+  protected void resumeJta(Object transaction) throws SystemException, InvalidTransactionException {
+    getTransactionManager().resume((Transaction) transaction);
+  }
+
+  @Override
+  protected TransactionSynchronizationRegistry getSynchronizationRegistry() {
+    return JtaSessions.getRegistry();
+  }
+
+  private UserTransaction getUserTransaction() {
+    UserTransaction transaction = this.resolvedUserTransaction;
+    if (transaction == null) {
+      transaction = this.userTransaction.get();
+      this.resolvedUserTransaction = transaction;
+    }
+    return transaction;
+  }
+
+  private TransactionManager getTransactionManager() {
+    if (!this.transactionManager.isUnsatisfied()) {
+      return this.transactionManager.get();
+    }
+    throw new MybatisCdiConfigurationException(
+        "A TransactionManager bean is required to suspend JTA transactions; none was found");
+  }
+
 }
@@ -0,0 +1,98 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency recorder. Recording only updates atomic counters, so it neither blocks nor allocates.
+ */
+abstract class LatencyStats implements LatencyStatsMXBean {
+
+  static final int BUCKETS = 32;
+
+  private final AtomicLong samples = new AtomicLong();
+
+  private final AtomicLong totalNanos = new AtomicLong();
+
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+  /**
+   * Records the time elapsed since the given instant.
+   *
+   * @param startNanos the start, as returned by {@code System.nanoTime()}
+   */
+  final void recordSince(long startNanos) {
+    long nanos = System.nanoTime() - startNanos;
+    this.samples.incrementAndGet();
+    this.totalNanos.addAndGet(nanos);
+    long max = this.maxNanos.get();
+    while (nanos > max && !this.maxNanos.compareAndSet(max, nanos)) {
+      max = this.maxNanos.get();
+    }
+    this.histogram.incrementAndGet(bucket(nanos));
+  }
+
+  static int bucket(long nanos) {
+    long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+    return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+  }
+
+  @Override
+  public double getMeanTimeMicros() {
+    long count = this.samples.get();
+    return count == 0 ? 0 : this.totalNanos.get() / 1000.0 / count;
+  }
+
+  @Override
+  public long getMaxTimeMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(this.maxNanos.get());
+  }
+
+  @Override
+  public long[] getLatencyHistogram() {
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = this.histogram.get(i);
+    }
+    return counts;
+  }
+
+  @Override
+  public long[] getLatencyBucketsMicros() {
+    long[] bounds = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS - 1; i++) {
+      bounds[i] = 1L << i;
+    }
+    bounds[BUCKETS - 1] = Long.MAX_VALUE;
+    return bounds;
+  }
+
+  @Override
+  public void reset() {
+    this.samples.set(0);
+    this.totalNanos.set(0);
+    this.maxNanos.set(0);
+    for (int i = 0; i < BUCKETS; i++) {
+      this.histogram.set(i, 0);
+    }
+  }
+
+}
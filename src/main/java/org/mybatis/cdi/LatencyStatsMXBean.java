@@ -0,0 +1,58 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+/**
+ * Latency figures shared by the MBeans published when {@link MybatisCdiProperties#METRICS} is enabled. Times are
+ * measured with {@code System.nanoTime()} and reported in microseconds.
+ */
+public interface LatencyStatsMXBean {
+
+  /**
+   * Gets the mean duration.
+   *
+   * @return the mean duration in microseconds, or 0 if nothing has been recorded yet
+   */
+  double getMeanTimeMicros();
+
+  /**
+   * Gets the longest duration recorded.
+   *
+   * @return the longest duration in microseconds
+   */
+  long getMaxTimeMicros();
+
+  /**
+   * Gets the latency histogram. Element {@code i} counts the durations below {@code getLatencyBucketsMicros()[i]}
+   * microseconds and not below the bound of the previous element.
+   *
+   * @return the number of durations in each bucket
+   */
+  long[] getLatencyHistogram();
+
+  /**
+   * Gets the exclusive upper bounds of the histogram buckets, which are powers of two. The last bucket is unbounded.
+   *
+   * @return the bounds in microseconds
+   */
+  long[] getLatencyBucketsMicros();
+
+  /**
+   * Sets all the counters back to zero.
+   */
+  void reset();
+
+}
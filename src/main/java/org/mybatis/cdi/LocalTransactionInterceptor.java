@@ -18,23 +18,41 @@ package org.mybatis.cdi;
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import javax.inject.Inject;
 import javax.interceptor.AroundInvoke;
 import javax.interceptor.Interceptor;
 import javax.interceptor.InvocationContext;
 import javax.transaction.HeuristicMixedException;
 import javax.transaction.HeuristicRollbackException;
+import javax.transaction.InvalidTransactionException;
 import javax.transaction.NotSupportedException;
 import javax.transaction.RollbackException;
 import javax.transaction.SystemException;
+import javax.transaction.TransactionRequiredException;
+import javax.transaction.TransactionSynchronizationRegistry;
+import javax.transaction.TransactionalException;
 
-import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.cursor.Cursor;
 
 /**
- * Best-effort interceptor for local transactions. It locates all the instances of {@code SqlSssionManager} and starts
- * transactions on all them. It cannot guarantee atomiticy if there is more than one {@code SqlSssionManager}. Use XA
- * drivers, a JTA container and the {@link JtaTransactionInterceptor} in that case.
+ * Best-effort interceptor for local transactions. It starts a transaction on each {@code SqlSessionManager} the first
+ * time one of its mappers or sessions is used inside the transactional method, and ends only those. It cannot guarantee
+ * atomiticy if there is more than one {@code SqlSssionManager} involved. Use XA drivers, a JTA container and the
+ * {@link JtaTransactionInterceptor} in that case.
+ * <p>
+ * The {@link Propagation} of the method decides whether it joins the current transaction, starts a new one or runs
+ * without any. {@code SUPPORTS} and {@code NOT_SUPPORTED} methods called without a transaction open no session of
+ * their own: each mapper call then runs in its own session, in auto-commit mode.
+ * <p>
+ * A transaction whose method returns a MyBatis {@code Cursor} is completed when the cursor is fully consumed or closed,
+ * so that the rows can be streamed to the caller. See {@link TransactionalCursor}.
+ * <p>
+ * A transaction started by the method that rolls back on a deadlock or a serialization failure can be run again, see
+ * {@link Transactional#maxAttempts()}.
  *
  * @see JtaTransactionInterceptor
  *
@@ -46,8 +64,10 @@ public class LocalTransactionInterceptor implements Serializable {
 
   private static final long serialVersionUID = 1L;
 
-  @Inject
-  private transient SqlSessionManagerRegistry registry;
+  private static final Logger LOGGER = Logger.getLogger(LocalTransactionInterceptor.class.getName());
+
+  private static final ConcurrentMap<Class<?>, Boolean> OVERRIDES_ANNOTATION_LOOKUP =
+      new ConcurrentHashMap<Class<?>, Boolean>();
 
   /**
    * Invoke.
@@ -58,98 +78,269 @@ public class LocalTransactionInterceptor implements Serializable {
    */
   @AroundInvoke
   public Object invoke(InvocationContext ctx) throws Exception {
-    Transactional transactional = getTransactionalAnnotation(ctx);
-    boolean isInitiator = start(transactional);
-    boolean isExternalJta = isTransactionActive();
-    if (isInitiator && !isExternalJta) {
-      beginJta();
+    TransactionAttribute attribute = getTransactionAttribute(ctx);
+    switch (attribute.getPropagation()) {
+      case REQUIRES_NEW:
+        return invokeInNewTransaction(ctx, attribute);
+      case SUPPORTS:
+        if (TransactionContext.current() != null) {
+          return proceed(ctx);
+        }
+        return isTransactionActive() ? invokeInTransaction(ctx, attribute, true) : proceed(ctx);
+      case NOT_SUPPORTED:
+        return invokeWithoutTransaction(ctx);
+      case MANDATORY:
+        if (TransactionContext.current() != null) {
+          return proceed(ctx);
+        }
+        if (!isTransactionActive()) {
+          throw new TransactionalException("A transaction is required to call " + ctx.getMethod(),
+              new TransactionRequiredException());
+        }
+        return invokeInTransaction(ctx, attribute, true);
+      case NEVER:
+        if (TransactionContext.current() != null || isTransactionActive()) {
+          throw new TransactionalException("No transaction is allowed when calling " + ctx.getMethod(),
+              new InvalidTransactionException());
+        }
+        return proceed(ctx);
+      default:
+        if (TransactionContext.current() != null) {
+          return proceed(ctx);
+        }
+        boolean isExternalJta = isTransactionActive();
+        return isExternalJta ? invokeInTransaction(ctx, attribute, true) : invokeWithRetries(ctx, attribute);
     }
-    boolean needsRollback = transactional.rollbackOnly();
+  }
+
+  /**
+   * Runs the method in a transaction of its own, and again in a new one each time the transaction fails with a
+   * retryable exception and rolls back, until {@link Transactional#maxAttempts()} is reached.
+   */
+  private Object invokeWithRetries(InvocationContext ctx, TransactionAttribute attribute) throws Exception {
+    for (int attempt = 1;; attempt++) {
+      try {
+        return invokeInTransaction(ctx, attribute, false);
+      } catch (Exception ex) {
+        if (attempt >= attribute.getMaxAttempts() || !attribute.isRetryable(ex)
+            || !attribute.isRollbackOnly() && !attribute.needsRollback(ex)) {
+          throw ex;
+        }
+        long delay = attribute.getRetryDelay(attempt);
+        LOGGER.log(Level.FINE, "MyBatis CDI Module - Retrying {0} in {1} ms after attempt {2} failed: {3}",
+            new Object[] { ctx.getMethod(), delay, attempt, ex });
+        Metrics.TransactionStats stats = Metrics.transaction(ctx.getMethod());
+        if (stats != null) {
+          stats.retried();
+        }
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw ex;
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Object invokeInTransaction(InvocationContext ctx, TransactionAttribute attribute, boolean isExternalJta)
+      throws Exception {
+    if (!isExternalJta) {
+      beginJta(attribute.getTimeout());
+    }
+    TransactionContext context = TransactionContext.begin(attribute, ctx.getMethod(), getSynchronizationRegistry());
+    boolean needsRollback = attribute.isRollbackOnly();
+    boolean streaming = false;
     Object result;
     try {
       result = ctx.proceed();
+      if (context.isTimedOut()) {
+        throw new TransactionalException("Transaction of " + ctx.getMethod() + " timed out after "
+            + attribute.getTimeout() + " seconds", new RollbackException());
+      }
+      if (result instanceof Cursor && supportsCursorStreaming()) {
+        result = new TransactionalCursor<Object>((Cursor<Object>) result, context, needsRollback);
+        streaming = true;
+      }
     } catch (Exception ex) {
       Exception unwrapped = unwrapException(ex);
-      needsRollback = needsRollback || needsRollback(transactional, unwrapped);
+      needsRollback = needsRollback || attribute.needsRollback(unwrapped);
       throw unwrapped;
     } finally {
-      if (isInitiator) {
-        try {
-          if (needsRollback) {
-            rollback(transactional);
-          } else {
-            commit(transactional);
-          }
-        } finally {
-          close();
-          endJta(isExternalJta, needsRollback);
-        }
+      if (streaming) {
+        // completed by the cursor
+        context.unbind();
+      } else {
+        completeTransaction(context, isExternalJta, needsRollback);
       }
     }
     return result;
   }
 
+  private void completeTransaction(TransactionContext context, boolean isExternalJta, boolean needsRollback)
+      throws Exception {
+    boolean committed = false;
+    try {
+      try {
+        if (needsRollback) {
+          context.rollback();
+        } else {
+          context.commit();
+        }
+      } finally {
+        context.close();
+        endJta(isExternalJta, needsRollback);
+      }
+      committed = !needsRollback;
+    } finally {
+      // a joined JTA transaction is completed later on by its owner
+      TransactionSynchronizationRegistry registry = isExternalJta ? getSynchronizationRegistry() : null;
+      if (committed) {
+        ResultCaches.invalidate(context.getWrittenNamespaces(), registry);
+      }
+      if (TransactionEvents.isEnabled()) {
+        TransactionEvents.fire(context, committed, registry);
+      }
+    }
+  }
+
+  private Object invokeInNewTransaction(InvocationContext ctx, TransactionAttribute attribute) throws Exception {
+    Object suspendedJta = isTransactionActive() ? suspendJta() : null;
+    try {
+      return invokeWithRetries(ctx, attribute);
+    } finally {
+      if (suspendedJta != null) {
+        resumeJta(suspendedJta);
+      }
+    }
+  }
+
+  private Object invokeWithoutTransaction(InvocationContext ctx) throws Exception {
+    TransactionContext suspended = TransactionContext.suspend();
+    try {
+      Object suspendedJta = isTransactionActive() ? suspendJta() : null;
+      try {
+        return proceed(ctx);
+      } finally {
+        if (suspendedJta != null) {
+          resumeJta(suspendedJta);
+        }
+      }
+    } finally {
+      TransactionContext.resume(suspended);
+    }
+  }
+
+  private Object proceed(InvocationContext ctx) throws Exception {
+    try {
+      return ctx.proceed();
+    } catch (Exception ex) {
+      throw unwrapException(ex);
+    }
+  }
+
   protected boolean isTransactionActive() throws SystemException {
     return false;
   }
 
+  /**
+   * Gets the registry the sessions must be bound to so that the JTA transaction completes them.
+   *
+   * @return the registry, or null if the interceptor completes the sessions itself
+   */
+  protected TransactionSynchronizationRegistry getSynchronizationRegistry() {
+    return null;
+  }
+
+  /**
+   * Tells whether a transaction whose method returns a MyBatis {@code Cursor} may be left open until the cursor is
+   * consumed or closed, instead of being completed when the method returns.
+   *
+   * @return true for local transactions
+   */
+  protected boolean supportsCursorStreaming() {
+    return true;
+  }
+
   protected void beginJta() throws NotSupportedException, SystemException {
     // nothing to do
   }
 
+  /**
+   * Begins a JTA transaction that may run for the given time.
+   *
+   * @param timeout the timeout in seconds, or 0 for the default one
+   * @throws NotSupportedException the not supported exception
+   * @throws SystemException the system exception
+   */
+  protected void beginJta(int timeout) throws NotSupportedException, SystemException {
+    beginJta();
+  }
+
   protected void endJta(boolean isExternaTransaction, boolean commit)
       throws SystemException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
     // nothing to do
   }
 
-  private boolean needsRollback(Transactional transactional, Throwable throwable) {
-    if (RuntimeException.class.isAssignableFrom(throwable.getClass())) {
-      return true;
-    }
-    for (Class<?> exceptionClass : transactional.rollbackFor()) {
-      if (exceptionClass.isAssignableFrom(throwable.getClass())) {
-        return true;
-      }
-    }
-    return false;
-  }
-
-  protected Transactional getTransactionalAnnotation(InvocationContext ctx) {
-    Transactional t = ctx.getMethod().getAnnotation(Transactional.class);
-    if (t == null) {
-      t = ctx.getMethod().getDeclaringClass().getAnnotation(Transactional.class);
-    }
-    return t;
+  /**
+   * Suspends the active JTA transaction, for {@link Propagation#REQUIRES_NEW} and {@link Propagation#NOT_SUPPORTED}.
+   * Only called when {@link #isTransactionActive()} returns true.
+   *
+   * @return the suspended transaction, to be passed to {@link #resumeJta(Object)}
+   * @throws SystemException the system exception
+   */
+  protected Object suspendJta() throws SystemException {
+    return null;
   }
 
-  private boolean start(Transactional transactional) {
-    boolean started = false;
-    for (SqlSessionManager manager : this.registry.getManagers()) {
-      if (!manager.isManagedSessionStarted()) {
-        manager.startManagedSession(transactional.executorType(),
-            transactional.isolation().getTransactionIsolationLevel());
-        started = true;
-      }
-    }
-    return started;
+  protected void resumeJta(Object transaction) throws SystemException, InvalidTransactionException {
+    // nothing to do
   }
 
-  private void commit(Transactional transactional) {
-    for (SqlSessionManager manager : this.registry.getManagers()) {
-      manager.commit(transactional.force());
+  /**
+   * Gets the attributes of the intercepted method. They are resolved once per method, stereotypes included, unless a
+   * subclass overrides {@link #getTransactionalAnnotation(InvocationContext)}, whose annotation is then used.
+   */
+  TransactionAttribute getTransactionAttribute(InvocationContext ctx) {
+    if (!overridesAnnotationLookup(getClass())) {
+      return TransactionAttribute.of(ctx.getMethod());
     }
+    return TransactionAttribute.of(getTransactionalAnnotation(ctx));
   }
 
-  private void rollback(Transactional transactional) {
-    for (SqlSessionManager manager : this.registry.getManagers()) {
-      manager.rollback(transactional.force());
+  private static boolean overridesAnnotationLookup(Class<?> type) {
+    Boolean overrides = OVERRIDES_ANNOTATION_LOOKUP.get(type);
+    if (overrides == null) {
+      overrides = Boolean.FALSE;
+      for (Class<?> c = type; c != LocalTransactionInterceptor.class && c != null; c = c.getSuperclass()) {
+        try {
+          c.getDeclaredMethod("getTransactionalAnnotation", InvocationContext.class);
+          overrides = Boolean.TRUE;
+          break;
+        } catch (NoSuchMethodException e) {
+          // not overridden by this class
+        }
+      }
+      OVERRIDES_ANNOTATION_LOOKUP.put(type, overrides);
     }
+    return overrides;
   }
 
-  private void close() {
-    for (SqlSessionManager manager : this.registry.getManagers()) {
-      manager.close();
+  /**
+   * Gets the {@code Transactional} annotation of the intercepted method. The interceptor does not call this method
+   * unless a subclass overrides it; it then resolves the attributes of the returned annotation instead of looking
+   * them up on the method, its class and their stereotypes.
+   *
+   * @param ctx the ctx
+   * @return the annotation
+   */
+  protected Transactional getTransactionalAnnotation(InvocationContext ctx) {
+    Transactional t = ctx.getMethod().getAnnotation(Transactional.class);
+    if (t == null) {
+      t = ctx.getMethod().getDeclaringClass().getAnnotation(Transactional.class);
     }
+    return t;
   }
 
   private Exception unwrapException(Exception wrapped) {
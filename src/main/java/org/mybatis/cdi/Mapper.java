@@ -33,5 +33,24 @@ import javax.enterprise.inject.Stereotype;
 @Retention(RUNTIME)
 @Target({ TYPE })
 public @interface Mapper {
-  // Interface Mapper
+
+  /**
+   * Flag to indicate that a single proxy of this mapper can be shared by all the injection points with the same
+   * qualifiers instead of creating a new one for each of them. Mapper proxies hold no state, so this only saves
+   * allocations.
+   *
+   * @return false by default, user defined otherwise.
+   * @see MybatisCdiProperties#SHARED_MAPPERS
+   */
+  boolean shared() default false;
+
+  /**
+   * Name of a CDI bean of type {@link org.apache.ibatis.cache.Cache}, usually a {@link BoundedCache}, that becomes the
+   * second level cache of the namespace of this mapper. The bean is looked up once, when the container starts, and
+   * its instance is shared by every factory and namespace it is selected for.
+   *
+   * @return the name of the cache bean, empty to keep the cache configured in MyBatis
+   */
+  String cache() default "";
+
 }
@@ -0,0 +1,74 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Replaces the second level cache of a mapper namespace by a cache selected with {@link Mapper#cache()}.
+ */
+final class MapperCaches {
+
+  private static final Logger LOGGER = Logger.getLogger(MapperCaches.class.getName());
+
+  private MapperCaches() {
+    // this class cannot be instantiated
+  }
+
+  /**
+   * Makes every statement of the namespace use the given cache. Statements keep their own {@code useCache} and
+   * {@code flushCache} settings, so selects are cached and writes clear the cache when their session commits.
+   *
+   * @param configuration the configuration of the factory
+   * @param namespace the namespace, which is the name of the mapper interface
+   * @param cache the cache
+   */
+  static void install(Configuration configuration, String namespace, Cache cache) {
+    String prefix = namespace + ".";
+    List<String> ids = new ArrayList<String>();
+    // statement names also hold short ids, which map to an ambiguity marker when they clash
+    for (String name : configuration.getMappedStatementNames()) {
+      if (name.startsWith(prefix)) {
+        ids.add(name);
+      }
+    }
+    for (String id : ids) {
+      MappedStatement ms = configuration.getMappedStatement(id, false);
+      if (ms.getCache() != cache) {
+        SystemMetaObject.forObject(ms).setValue("cache", cache);
+      }
+    }
+    synchronized (configuration) {
+      if (!configuration.hasCache(cache.getId())) {
+        configuration.addCache(cache);
+      }
+    }
+    if (Metrics.ENABLED && cache instanceof CacheStatsMXBean) {
+      Metrics.registerCache((CacheStatsMXBean) cache, cache.getId());
+    }
+    LOGGER.log(Level.FINE, "MyBatis CDI Module - Cache {0} installed on {1} statements of {2}",
+        new Object[] { cache.getId(), ids.size(), namespace });
+  }
+
+}
@@ -0,0 +1,117 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.session.SqlSessionManager;
+
+/**
+ * Bounded executors running the {@link AsyncMapperMethod asynchronous mapper methods}, one per factory so that a slow
+ * database cannot starve the calls made to the others. Each one has {@link MybatisCdiProperties#ASYNC_THREADS} threads
+ * and queues up to {@link MybatisCdiProperties#ASYNC_QUEUE_SIZE} statements; further submissions are rejected with a
+ * {@code RejectedExecutionException}. Executors are created the first time a factory runs an asynchronous call.
+ */
+final class MapperExecutors {
+
+  private static final ConcurrentMap<SqlSessionManager, ExecutorService> EXECUTORS =
+      new ConcurrentHashMap<SqlSessionManager, ExecutorService>();
+
+  private MapperExecutors() {
+    // this class cannot be instantiated
+  }
+
+  /**
+   * Gets the executor of the given manager, creating it on first use.
+   *
+   * @param manager the manager
+   * @return the executor
+   */
+  static ExecutorService get(SqlSessionManager manager) {
+    ExecutorService executor = EXECUTORS.get(manager);
+    if (executor == null) {
+      ExecutorService created = create(manager.getConfiguration().getEnvironment().getId());
+      executor = EXECUTORS.putIfAbsent(manager, created);
+      if (executor == null) {
+        executor = created;
+      } else {
+        created.shutdown();
+      }
+    }
+    return executor;
+  }
+
+  /**
+   * Stops the executor of the given manager, if any, letting the statements already submitted finish.
+   *
+   * @param manager the manager
+   */
+  static void shutdown(SqlSessionManager manager) {
+    ExecutorService executor = EXECUTORS.remove(manager);
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Stops all the executors, letting the statements already submitted finish. Called when the container shuts down.
+   */
+  static void shutdownAll() {
+    for (ExecutorService executor : EXECUTORS.values()) {
+      executor.shutdown();
+    }
+    EXECUTORS.clear();
+  }
+
+  private static ExecutorService create(String name) {
+    int threads = Math.max(MybatisCdiProperties.getAsyncThreads(), 1);
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(Math.max(MybatisCdiProperties.getAsyncQueueSize(), 1)),
+        new AsyncThreadFactory("mybatis-cdi-async-" + name + "-"));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Creates daemon threads named after the given prefix and a sequence number.
+   */
+  static final class AsyncThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    AsyncThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, this.prefix + this.count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
+
+}
@@ -0,0 +1,32 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+/**
+ * Calls to a mapper method made through an injected mapper.
+ */
+public interface MapperMethodStatsMXBean extends LatencyStatsMXBean {
+
+  long getCalls();
+
+  /**
+   * Gets the number of calls that threw an exception.
+   *
+   * @return the number of failed calls
+   */
+  long getErrors();
+
+}
@@ -0,0 +1,341 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.ibatis.session.SqlSessionManager;
+
+/**
+ * Instrumentation of transactions and mapper calls, published as MBeans in the {@value #DOMAIN} domain. It is
+ * switched on by {@link MybatisCdiProperties#METRICS}; when it is off the lookups return null and nothing is recorded
+ * or registered. Statistics are created, and their MBeans registered, the first time they are needed.
+ */
+final class Metrics {
+
+  static final boolean ENABLED = MybatisCdiProperties.isMetrics();
+
+  static final String DOMAIN = "org.mybatis.cdi";
+
+  private static final Logger LOGGER = Logger.getLogger(Metrics.class.getName());
+
+  private static final ConcurrentMap<Method, TransactionStats> TRANSACTIONS =
+      new ConcurrentHashMap<Method, TransactionStats>();
+
+  private static final ConcurrentMap<SqlSessionManager, TransactionStats> FACTORIES =
+      new ConcurrentHashMap<SqlSessionManager, TransactionStats>();
+
+  private static final ConcurrentMap<SqlSessionManager, ObjectName> FACTORY_NAMES =
+      new ConcurrentHashMap<SqlSessionManager, ObjectName>();
+
+  private static final ConcurrentMap<Method, MapperMethodStats> MAPPER_METHODS =
+      new ConcurrentHashMap<Method, MapperMethodStats>();
+
+  private static final ConcurrentMap<CacheStatsMXBean, Boolean> CACHES =
+      new ConcurrentHashMap<CacheStatsMXBean, Boolean>();
+
+  private static final Set<ObjectName> NAMES =
+      Collections.newSetFromMap(new ConcurrentHashMap<ObjectName, Boolean>());
+
+  private Metrics() {
+    // this class cannot be instantiated
+  }
+
+  /**
+   * Gets the statistics of the transactions started by the given method.
+   *
+   * @param method the {@code @Transactional} method
+   * @return the statistics or null if metrics are disabled
+   */
+  static TransactionStats transaction(Method method) {
+    if (!ENABLED) {
+      return null;
+    }
+    TransactionStats stats = TRANSACTIONS.get(method);
+    if (stats == null) {
+      TransactionStats created = new TransactionStats();
+      stats = TRANSACTIONS.putIfAbsent(method, created);
+      if (stats == null) {
+        stats = created;
+        register("Transaction", signature(method), created, TransactionStatsMXBean.class);
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Gets the statistics of the transactions run on the given manager.
+   *
+   * @param manager the manager
+   * @return the statistics or null if metrics are disabled
+   */
+  static TransactionStats factory(SqlSessionManager manager) {
+    if (!ENABLED) {
+      return null;
+    }
+    TransactionStats stats = FACTORIES.get(manager);
+    if (stats == null) {
+      stats = registerFactory(manager, manager.getConfiguration().getEnvironment().getId());
+    }
+    return stats;
+  }
+
+  /**
+   * Publishes the statistics of a manager under the given name. Called by the registry so factories are named as in
+   * the log.
+   *
+   * @param manager the manager
+   * @param name the name of the factory
+   * @return the statistics or null if metrics are disabled
+   */
+  static TransactionStats registerFactory(SqlSessionManager manager, String name) {
+    if (!ENABLED) {
+      return null;
+    }
+    TransactionStats created = new TransactionStats();
+    TransactionStats stats = FACTORIES.putIfAbsent(manager, created);
+    if (stats == null) {
+      stats = created;
+      ObjectName objectName = register("Factory", name, created, TransactionStatsMXBean.class);
+      if (objectName != null) {
+        FACTORY_NAMES.put(manager, objectName);
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Unregisters the MBean of a manager and forgets its statistics. Called when a tenant is evicted.
+   *
+   * @param manager the manager
+   */
+  static void unregisterFactory(SqlSessionManager manager) {
+    if (!ENABLED) {
+      return;
+    }
+    FACTORIES.remove(manager);
+    ObjectName name = FACTORY_NAMES.remove(manager);
+    if (name != null) {
+      NAMES.remove(name);
+      unregister(ManagementFactory.getPlatformMBeanServer(), name);
+    }
+  }
+
+  /**
+   * Gets the statistics of the calls to the given mapper method.
+   *
+   * @param method the mapper method
+   * @return the statistics or null if metrics are disabled
+   */
+  static MapperMethodStats mapperMethod(Method method) {
+    if (!ENABLED) {
+      return null;
+    }
+    MapperMethodStats stats = MAPPER_METHODS.get(method);
+    if (stats == null) {
+      MapperMethodStats created = new MapperMethodStats();
+      stats = MAPPER_METHODS.putIfAbsent(method, created);
+      if (stats == null) {
+        stats = created;
+        register("MapperMethod", signature(method), created, MapperMethodStatsMXBean.class);
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Publishes the statistics of a cache, once however many namespaces it serves.
+   *
+   * @param cache the cache
+   * @param name the id of the cache
+   */
+  static void registerCache(CacheStatsMXBean cache, String name) {
+    if (ENABLED && CACHES.putIfAbsent(cache, Boolean.TRUE) == null) {
+      register("Cache", name, cache, CacheStatsMXBean.class);
+    }
+  }
+
+  /**
+   * Unregisters all the MBeans and forgets their statistics. Called when the container shuts down.
+   */
+  static void unregisterAll() {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (ObjectName name : NAMES) {
+      unregister(server, name);
+    }
+    NAMES.clear();
+    TRANSACTIONS.clear();
+    FACTORIES.clear();
+    FACTORY_NAMES.clear();
+    MAPPER_METHODS.clear();
+    CACHES.clear();
+  }
+
+  private static void unregister(MBeanServer server, ObjectName name) {
+    try {
+      server.unregisterMBean(name);
+    } catch (JMException e) {
+      LOGGER.log(Level.FINE, "MyBatis CDI Module - Unable to unregister MBean " + name, e);
+    }
+  }
+
+  private static <T> ObjectName register(String type, String name, T stats, Class<T> mbeanInterface) {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      StandardMBean mbean = new StandardMBean(stats, mbeanInterface, true);
+      String unique = name;
+      for (int i = 2;; i++) {
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(unique));
+        try {
+          server.registerMBean(mbean, objectName);
+          NAMES.add(objectName);
+          return objectName;
+        } catch (InstanceAlreadyExistsException e) {
+          unique = name + " #" + i;
+        }
+      }
+    } catch (JMException e) {
+      LOGGER.log(Level.WARNING, "MyBatis CDI Module - Unable to register the MBean of " + name, e);
+      return null;
+    }
+  }
+
+  private static String signature(Method method) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(method.getDeclaringClass().getName()).append('.').append(method.getName()).append('(');
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    for (int i = 0; i < parameterTypes.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(parameterTypes[i].getSimpleName());
+    }
+    return sb.append(')').toString();
+  }
+
+  static final class TransactionStats extends LatencyStats implements TransactionStatsMXBean {
+
+    private final AtomicLong begun = new AtomicLong();
+
+    private final AtomicLong committed = new AtomicLong();
+
+    private final AtomicLong rolledBack = new AtomicLong();
+
+    private final AtomicLong retried = new AtomicLong();
+
+    /**
+     * Counts a new transaction.
+     *
+     * @return the start of the transaction, to be passed to {@link #end}
+     */
+    long begin() {
+      this.begun.incrementAndGet();
+      return System.nanoTime();
+    }
+
+    void end(long startNanos, boolean rollback) {
+      (rollback ? this.rolledBack : this.committed).incrementAndGet();
+      recordSince(startNanos);
+    }
+
+    void retried() {
+      this.retried.incrementAndGet();
+    }
+
+    @Override
+    public long getBegun() {
+      return this.begun.get();
+    }
+
+    @Override
+    public long getCommitted() {
+      return this.committed.get();
+    }
+
+    @Override
+    public long getRolledBack() {
+      return this.rolledBack.get();
+    }
+
+    @Override
+    public long getRetried() {
+      return this.retried.get();
+    }
+
+    @Override
+    public long getActive() {
+      return Math.max(0, this.begun.get() - this.committed.get() - this.rolledBack.get());
+    }
+
+    @Override
+    public void reset() {
+      super.reset();
+      this.begun.set(0);
+      this.committed.set(0);
+      this.rolledBack.set(0);
+      this.retried.set(0);
+    }
+
+  }
+
+  static final class MapperMethodStats extends LatencyStats implements MapperMethodStatsMXBean {
+
+    private final AtomicLong calls = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    void record(long startNanos, boolean failed) {
+      this.calls.incrementAndGet();
+      if (failed) {
+        this.errors.incrementAndGet();
+      }
+      recordSince(startNanos);
+    }
+
+    @Override
+    public long getCalls() {
+      return this.calls.get();
+    }
+
+    @Override
+    public long getErrors() {
+      return this.errors.get();
+    }
+
+    @Override
+    public void reset() {
+      super.reset();
+      this.calls.set(0);
+      this.errors.set(0);
+    }
+
+  }
+
+}
@@ -17,19 +17,26 @@ package org.mybatis.cdi;
 
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.Type;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.enterprise.context.Dependent;
 import javax.enterprise.context.spi.CreationalContext;
 import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
 import javax.enterprise.inject.spi.PassivationCapable;
 
+import org.apache.ibatis.binding.MapperMethod;
+import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.executor.ErrorContext;
-import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionManager;
 
@@ -50,6 +57,22 @@ public class MyBatisBean implements Bean, Serializable, PassivationCapable {
 
   protected final String id;
 
+  private final boolean shared;
+
+  private final String cacheName;
+
+  private transient volatile Object sharedInstance;
+
+  private transient volatile SqlSessionManager manager;
+
+  private transient volatile ReplicaSet replicas;
+
+  private transient volatile ConcurrentMap<Method, MapperMethod> mapperMethods;
+
+  private transient volatile ConcurrentMap<Method, Boolean> writeMethods;
+
+  private transient volatile ConcurrentMap<Method, AsyncMapperMethod> asyncMethods;
+
   /**
    * Instantiates a new my batis bean.
    *
@@ -69,6 +92,10 @@ public class MyBatisBean implements Bean, Serializable, PassivationCapable {
     } else {
       this.qualifiers = qualifiers;
     }
+    Mapper mapper = type.getAnnotation(Mapper.class);
+    this.shared = MybatisCdiProperties.isSharedMappers() || mapper != null && mapper.shared();
+    this.cacheName = mapper == null || mapper.cache().isEmpty() ? null : mapper.cache();
+    ResultCaches.register(type);
   }
 
   @Override
@@ -120,9 +147,27 @@ public class MyBatisBean implements Bean, Serializable, PassivationCapable {
 
   @Override
   public Object create(CreationalContext creationalContext) {
-    if (SqlSession.class.equals(this.type)) {
-      return findSqlSessionManager(creationalContext);
+    if (!this.shared) {
+      return createProxy(creationalContext);
+    }
+    Object instance = this.sharedInstance;
+    return instance != null ? instance : createSharedInstance(creationalContext);
+  }
+
+  /**
+   * Creates the instance shared by all the injection points, once, when the bean is bound or else on first injection
+   * with the creational context of that injection point.
+   */
+  private synchronized Object createSharedInstance(CreationalContext creationalContext) {
+    Object instance = this.sharedInstance;
+    if (instance == null) {
+      instance = createProxy(creationalContext);
+      this.sharedInstance = instance;
     }
+    return instance;
+  }
+
+  private Object createProxy(CreationalContext creationalContext) {
     ErrorContext.instance().reset();
     return Proxy.newProxyInstance(SqlSessionFactory.class.getClassLoader(), new Class[] { this.type },
         new SerializableMapperProxy(this, creationalContext));
@@ -130,13 +175,217 @@ public class MyBatisBean implements Bean, Serializable, PassivationCapable {
 
   @Override
   public void destroy(Object instance, CreationalContext creationalContext) {
-    creationalContext.release();
+    if (instance != this.sharedInstance) {
+      creationalContext.release();
+    }
+  }
+
+  /**
+   * Resolves the {@code SqlSessionManager} this bean is bound to and keeps a direct reference to it, and creates the
+   * shared instance of a shared mapper. Called by the extension once the deployment has been validated so that
+   * creating instances needs no container lookups.
+   *
+   * @param beanManager the bean manager
+   * @param creationalContext the creational context
+   */
+  void bind(BeanManager beanManager, CreationalContext creationalContext) {
+    SqlSessionFactory factory = CDIUtils.findSqlSessionFactory(beanManager, this.sqlSessionFactoryName,
+        this.qualifiers, creationalContext);
+    SqlSessionManagerRegistry registry = CDIUtils.getRegistry(beanManager, creationalContext);
+    SqlSessionManager sessionManager = registry.getManager(factory);
+    setManager(sessionManager, registry.getReplicas(sessionManager));
+    if (this.shared) {
+      // a context of its own, which outlives the beans the instance is injected into
+      createSharedInstance(beanManager.createCreationalContext(this));
+    }
   }
 
-  private SqlSessionManager findSqlSessionManager(CreationalContext creationalContext) {
-    SqlSessionFactory factory = CDIUtils.findSqlSessionFactory(this.sqlSessionFactoryName, this.qualifiers,
-        creationalContext);
-    return CDIUtils.getRegistry(creationalContext).getManager(factory);
+  /**
+   * Installs the cache selected with {@code @Mapper(cache = "name")} on the statements of the mapper. Called by the
+   * extension once the deployment has been validated, after {@link #bind(BeanManager, CreationalContext)}.
+   *
+   * @param beanManager the bean manager
+   * @param creationalContext the creational context
+   * @throws MybatisCdiConfigurationException if there is no such cache
+   */
+  void bindCache(BeanManager beanManager, CreationalContext creationalContext) {
+    if (this.cacheName == null) {
+      return;
+    }
+    Cache cache = CDIUtils.findCache(beanManager, this.cacheName, creationalContext);
+    SqlSessionManager sessionManager = this.manager;
+    if (sessionManager != null) {
+      MapperCaches.install(sessionManager.getConfiguration(), this.type.getName(), cache);
+    }
+  }
+
+  void bind(SqlSessionManager sessionManager) {
+    bind(sessionManager, null);
+  }
+
+  /**
+   * Binds this bean to the given manager outside of a container, and creates the shared instance of a shared mapper.
+   *
+   * @param sessionManager the manager
+   * @param replicaSet the read replicas of its factory, may be null
+   */
+  void bind(SqlSessionManager sessionManager, ReplicaSet replicaSet) {
+    setManager(sessionManager, replicaSet);
+    if (this.shared) {
+      createSharedInstance(null);
+    }
+  }
+
+  private void setManager(SqlSessionManager sessionManager, ReplicaSet replicaSet) {
+    this.replicas = replicaSet;
+    this.manager = sessionManager;
+  }
+
+  /**
+   * Gets the {@code SqlSessionManager} this bean is bound to. It is resolved here if the bean was not bound at
+   * deployment or has been deserialized.
+   *
+   * @param creationalContext the creational context
+   * @return the manager
+   */
+  SqlSessionManager getManager(CreationalContext creationalContext) {
+    SqlSessionManager sessionManager = this.manager;
+    if (sessionManager == null) {
+      SqlSessionFactory factory = CDIUtils.findSqlSessionFactory(this.sqlSessionFactoryName, this.qualifiers,
+          creationalContext);
+      SqlSessionManagerRegistry registry = CDIUtils.getRegistry(creationalContext);
+      sessionManager = registry.getManager(factory);
+      setManager(sessionManager, registry.getReplicas(sessionManager));
+    }
+    return sessionManager;
+  }
+
+  /**
+   * Gets the {@code SqlSessionManager} the calls made now must run on and {@link InFlightManagers#acquire acquires}
+   * it: the replacement of the bound manager if it has been {@link SqlSessionManagerRegistry#replace replaced}, the
+   * manager of the given tenant if it is a {@link TenantTemplate}, or else the bound manager. The caller releases it.
+   *
+   * @param creationalContext the creational context
+   * @param tenant the tenant of the call, as returned by {@link TenantManagers#tenantOf}
+   * @return the acquired manager
+   * @throws MybatisCdiConfigurationException if the factory of this bean has been retired
+   */
+  SqlSessionManager acquireCurrentManager(CreationalContext creationalContext, String tenant) {
+    SqlSessionManager bound = getManager(creationalContext);
+    while (true) {
+      SqlSessionManager current = ReplacedManagers.current(bound);
+      SqlSessionManager acquired = TenantManagers.acquire(current, tenant);
+      if (acquired != null) {
+        return acquired;
+      }
+      if (ReplacedManagers.current(bound) == current) {
+        throw new MybatisCdiConfigurationException("The SqlSessionFactory of " + this.id + " has been retired.");
+      }
+      // replaced in the meantime, resolve the replacement
+    }
+  }
+
+  /**
+   * Gets the read replicas of the factory this bean is bound to.
+   *
+   * @param creationalContext the creational context
+   * @return the replicas or null if the factory has none
+   */
+  ReplicaSet getReplicas(CreationalContext creationalContext) {
+    getManager(creationalContext);
+    return this.replicas;
+  }
+
+  /**
+   * Tells whether this bean has been bound to its {@code SqlSessionManager}.
+   *
+   * @return true once bound, at deployment or on first use
+   */
+  boolean isBound() {
+    return this.manager != null;
+  }
+
+  /**
+   * Tells whether the given mapper method has been bound to its statement.
+   *
+   * @param method the mapper method
+   * @return true once bound, by warm-up or on first call
+   */
+  boolean isBound(Method method) {
+    ConcurrentMap<Method, MapperMethod> methods = this.mapperMethods;
+    ConcurrentMap<Method, AsyncMapperMethod> async = this.asyncMethods;
+    return methods != null && methods.containsKey(method) || async != null && async.containsKey(method);
+  }
+
+  /**
+   * Gets the {@code MapperMethod} bound to the given mapper method, creating it on first use.
+   *
+   * @param method the mapper method
+   * @param configuration the configuration of the factory this bean is bound to
+   * @return the mapper method
+   */
+  MapperMethod getMapperMethod(Method method, Configuration configuration) {
+    ConcurrentMap<Method, MapperMethod> methods = this.mapperMethods;
+    if (methods == null) {
+      methods = new ConcurrentHashMap<Method, MapperMethod>();
+      this.mapperMethods = methods;
+    }
+    MapperMethod mapperMethod = methods.get(method);
+    if (mapperMethod == null) {
+      mapperMethod = new MapperMethod(this.type, method, configuration);
+      MapperMethod previous = methods.putIfAbsent(method, mapperMethod);
+      if (previous != null) {
+        mapperMethod = previous;
+      }
+    }
+    return mapperMethod;
+  }
+
+  /**
+   * Gets the {@code AsyncMapperMethod} bound to the given mapper method, creating it on first use.
+   *
+   * @param method the mapper method returning a {@code Future}
+   * @param configuration the configuration of the factory this bean is bound to
+   * @return the asynchronous mapper method
+   */
+  AsyncMapperMethod getAsyncMapperMethod(Method method, Configuration configuration) {
+    ConcurrentMap<Method, AsyncMapperMethod> methods = this.asyncMethods;
+    if (methods == null) {
+      methods = new ConcurrentHashMap<Method, AsyncMapperMethod>();
+      this.asyncMethods = methods;
+    }
+    AsyncMapperMethod asyncMethod = methods.get(method);
+    if (asyncMethod == null) {
+      asyncMethod = new AsyncMapperMethod(this.type, method, configuration);
+      AsyncMapperMethod previous = methods.putIfAbsent(method, asyncMethod);
+      if (previous != null) {
+        asyncMethod = previous;
+      }
+    }
+    return asyncMethod;
+  }
+
+  /**
+   * Tells whether the given mapper method runs an insert, an update or a delete.
+   *
+   * @param method the mapper method
+   * @param configuration the configuration of the factory this bean is bound to
+   * @return true if the method writes
+   */
+  boolean isWrite(Method method, Configuration configuration) {
+    ConcurrentMap<Method, Boolean> methods = this.writeMethods;
+    if (methods == null) {
+      methods = new ConcurrentHashMap<Method, Boolean>();
+      this.writeMethods = methods;
+    }
+    Boolean write = methods.get(method);
+    if (write == null) {
+      SqlCommandType commandType = new MapperMethod.SqlCommand(configuration, this.type, method).getType();
+      write = commandType == SqlCommandType.INSERT || commandType == SqlCommandType.UPDATE
+          || commandType == SqlCommandType.DELETE;
+      methods.put(method, write);
+    }
+    return write;
   }
 
   @Override
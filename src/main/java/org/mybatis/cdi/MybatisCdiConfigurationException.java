@@ -28,4 +28,8 @@ public class MybatisCdiConfigurationException extends RuntimeException {
     super(message);
   }
 
+  public MybatisCdiConfigurationException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
 }
@@ -0,0 +1,190 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Names of the system properties that tune the module globally. All of them are optional.
+ */
+public final class MybatisCdiProperties {
+
+  /**
+   * Share a single proxy per mapper bean among all the injection points, as if every mapper was annotated with
+   * {@code @Mapper(shared = true)}. Defaults to {@code false}.
+   */
+  public static final String SHARED_MAPPERS = "mybatis.cdi.sharedMappers";
+
+  /**
+   * Number of threads used to build the {@code SqlSessionFactory}s when the registry is initialized. With more than one
+   * thread the factories are built in parallel. Defaults to {@code 1}, which builds them one after another.
+   */
+  public static final String INIT_THREADS = "mybatis.cdi.initThreads";
+
+  /**
+   * Run a warm-up phase once the deployment has been validated: every method of every discovered mapper is bound to
+   * its mapped statement, and connections are opened on every factory. Defaults to {@code false}.
+   */
+  public static final String WARM_UP = "mybatis.cdi.warmUp";
+
+  /**
+   * Number of connections opened and validated on each factory during the warm-up. Defaults to {@code 1}.
+   */
+  public static final String WARM_UP_CONNECTIONS = "mybatis.cdi.warmUp.connections";
+
+  /**
+   * Comma separated list of statement ids run during the warm-up, without parameters, on every factory that knows them.
+   * Not set by default.
+   */
+  public static final String WARM_UP_STATEMENTS = "mybatis.cdi.warmUp.statements";
+
+  /**
+   * Record transactions and mapper calls and publish the statistics as MBeans. Read once, when the module is loaded.
+   * Defaults to {@code false}, in which case nothing is measured.
+   */
+  public static final String METRICS = "mybatis.cdi.metrics";
+
+  /**
+   * How a read replica is selected for each read-only transaction when a factory has several of them:
+   * {@code roundRobin} or {@code leastInFlight}, which picks the replica running the fewest read-only transactions.
+   * Defaults to {@code roundRobin}.
+   */
+  public static final String REPLICA_SELECTION = "mybatis.cdi.replicaSelection";
+
+  /**
+   * Number of threads of each factory running the mapper methods that return a {@code Future}. Defaults to the number
+   * of available processors.
+   */
+  public static final String ASYNC_THREADS = "mybatis.cdi.async.threads";
+
+  /**
+   * Number of asynchronous mapper calls each factory queues while all its threads are busy. Defaults to {@code 256}.
+   */
+  public static final String ASYNC_QUEUE_SIZE = "mybatis.cdi.async.queueSize";
+
+  /**
+   * Keep the sessions used by the transactions of a CDI request open until the request ends, so that the transactions
+   * of a request share one connection per factory. Read once, when the module is loaded. Defaults to {@code false}.
+   */
+  public static final String EXTENDED_SESSIONS = "mybatis.cdi.extendedSessions";
+
+  /**
+   * Run the calls made outside of a {@link Transactional} method, for instance in a container managed transaction or
+   * after {@code UserTransaction.begin()}, on the session bound to the active JTA transaction. Read once, when the
+   * module is loaded. Defaults to {@code false}, in which case only the {@link JtaTransactionInterceptor} binds
+   * sessions to JTA transactions.
+   */
+  public static final String JTA_SESSIONS = "mybatis.cdi.jtaSessions";
+
+  /**
+   * Number of threads delivering the {@link TransactionCompleted} events, or {@code 0} to deliver them on the thread
+   * that completed the transaction. Defaults to {@code 1}, which keeps the events in the order of completion.
+   */
+  public static final String EVENTS_THREADS = "mybatis.cdi.events.threads";
+
+  /**
+   * Number of {@link TransactionCompleted} events queued while all the delivering threads are busy. Defaults to
+   * {@code 1024}.
+   */
+  public static final String EVENTS_QUEUE_SIZE = "mybatis.cdi.events.queueSize";
+
+  /**
+   * Number of tenants of each {@link TenantTemplate} factory kept open, unless the qualifier sets it; opening one more
+   * closes the least recently used one. Defaults to {@code 500}.
+   */
+  public static final String TENANTS_MAXIMUM_SIZE = "mybatis.cdi.tenants.maximumSize";
+
+  /**
+   * Seconds after which a tenant that has not been used is closed, unless its {@link TenantTemplate} qualifier sets
+   * them. Defaults to {@code 600}.
+   */
+  public static final String TENANTS_IDLE_TIMEOUT = "mybatis.cdi.tenants.idleTimeout";
+
+  private MybatisCdiProperties() {
+    // this class cannot be instantiated
+  }
+
+  static boolean isSharedMappers() {
+    return Boolean.getBoolean(SHARED_MAPPERS);
+  }
+
+  static int getInitThreads() {
+    return Integer.getInteger(INIT_THREADS, 1);
+  }
+
+  static boolean isWarmUp() {
+    return Boolean.getBoolean(WARM_UP);
+  }
+
+  static int getWarmUpConnections() {
+    return Integer.getInteger(WARM_UP_CONNECTIONS, 1);
+  }
+
+  static List<String> getWarmUpStatements() {
+    List<String> statements = new ArrayList<String>();
+    String value = System.getProperty(WARM_UP_STATEMENTS);
+    if (value != null) {
+      for (String statement : value.split(",")) {
+        if (statement.trim().length() > 0) {
+          statements.add(statement.trim());
+        }
+      }
+    }
+    return statements;
+  }
+
+  static boolean isLeastInFlightReplicaSelection() {
+    return "leastInFlight".equalsIgnoreCase(System.getProperty(REPLICA_SELECTION));
+  }
+
+  static int getAsyncThreads() {
+    return Integer.getInteger(ASYNC_THREADS, Runtime.getRuntime().availableProcessors());
+  }
+
+  static int getAsyncQueueSize() {
+    return Integer.getInteger(ASYNC_QUEUE_SIZE, 256);
+  }
+
+  static boolean isExtendedSessions() {
+    return Boolean.getBoolean(EXTENDED_SESSIONS);
+  }
+
+  static boolean isJtaSessions() {
+    return Boolean.getBoolean(JTA_SESSIONS);
+  }
+
+  static int getEventsThreads() {
+    return Integer.getInteger(EVENTS_THREADS, 1);
+  }
+
+  static int getEventsQueueSize() {
+    return Integer.getInteger(EVENTS_QUEUE_SIZE, 1024);
+  }
+
+  static int getTenantsMaximumSize() {
+    return Integer.getInteger(TENANTS_MAXIMUM_SIZE, 500);
+  }
+
+  static int getTenantsIdleTimeout() {
+    return Integer.getInteger(TENANTS_IDLE_TIMEOUT, 600);
+  }
+
+  static boolean isMetrics() {
+    return Boolean.getBoolean(METRICS);
+  }
+
+}
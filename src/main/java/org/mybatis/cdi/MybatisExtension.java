@@ -15,29 +15,37 @@
  */
 package org.mybatis.cdi;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.enterprise.context.spi.CreationalContext;
 import javax.enterprise.event.Observes;
 import javax.enterprise.inject.spi.AfterBeanDiscovery;
+import javax.enterprise.inject.spi.AfterDeploymentValidation;
 import javax.enterprise.inject.spi.AnnotatedMember;
 import javax.enterprise.inject.spi.AnnotatedType;
-import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeforeBeanDiscovery;
+import javax.enterprise.inject.spi.BeforeShutdown;
 import javax.enterprise.inject.spi.BeanManager;
 import javax.enterprise.inject.spi.Extension;
 import javax.enterprise.inject.spi.InjectionPoint;
-import javax.enterprise.inject.spi.InjectionTarget;
 import javax.enterprise.inject.spi.ProcessAnnotatedType;
-import javax.enterprise.inject.spi.ProcessInjectionTarget;
+import javax.enterprise.inject.spi.ProcessInjectionPoint;
 import javax.enterprise.inject.spi.ProcessProducer;
+import javax.enterprise.inject.spi.WithAnnotations;
 import javax.inject.Named;
 import javax.inject.Qualifier;
 
@@ -57,7 +65,65 @@ public class MybatisExtension implements Extension {
 
   private final Set<Type> mapperTypes = new HashSet<Type>();
 
-  private final Set<InjectionPoint> injectionPoints = new HashSet<InjectionPoint>();
+  private final Set<BeanKey> injectionTargets = new HashSet<BeanKey>();
+
+  private final Set<String> indexedProducers = new HashSet<String>();
+
+  private boolean indexed;
+
+  private final List<MyBatisBean> beans = new ArrayList<MyBatisBean>();
+
+  /**
+   * Read the mappers and producers listed in the indexes written by {@link MybatisIndexProcessor}.
+   *
+   * @param bbd the bbd
+   */
+  protected void beforeBeanDiscovery(@Observes BeforeBeanDiscovery bbd) {
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    if (classLoader == null) {
+      classLoader = MybatisExtension.class.getClassLoader();
+    }
+    try {
+      Enumeration<URL> indexes = classLoader.getResources(MybatisIndexProcessor.INDEX);
+      while (indexes.hasMoreElements()) {
+        readIndex(indexes.nextElement(), classLoader);
+        this.indexed = true;
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "MyBatis CDI Module - Unable to read the indexes: {0}", e.getMessage());
+    }
+  }
+
+  private void readIndex(URL index, ClassLoader classLoader) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(index.openStream(), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int separator = line.indexOf(' ');
+        if (separator < 0) {
+          continue;
+        }
+        String kind = line.substring(0, separator);
+        String name = line.substring(separator + 1).trim();
+        if (MybatisIndexProcessor.MAPPER.equals(kind)) {
+          addIndexedMapper(name, classLoader);
+        } else if (MybatisIndexProcessor.PRODUCER.equals(kind)) {
+          this.indexedProducers.add(name);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  private void addIndexedMapper(String name, ClassLoader classLoader) {
+    try {
+      this.mapperTypes.add(Class.forName(name, false, classLoader));
+      LOGGER.log(Level.INFO, "MyBatis CDI Module - Found indexed Mapper: {0}", name);
+    } catch (ClassNotFoundException e) {
+      LOGGER.log(Level.WARNING, "MyBatis CDI Module - Indexed Mapper not found: {0}", name);
+    }
+  }
 
   /**
    * Collect types of all mappers annotated with Mapper.
@@ -66,7 +132,7 @@ public class MybatisExtension implements Extension {
    * @param pat the pat
    */
   @SuppressWarnings("UnusedDeclaration")
-  protected <T> void processAnnotatedType(@Observes final ProcessAnnotatedType<T> pat) {
+  protected <T> void processAnnotatedType(@Observes @WithAnnotations(Mapper.class) final ProcessAnnotatedType<T> pat) {
     final AnnotatedType<T> at = pat.getAnnotatedType();
     if (at.isAnnotationPresent(Mapper.class)) {
       LOGGER.log(Level.INFO, "MyBatis CDI Module - Found class with @Mapper-annotation: {0}",
@@ -88,9 +154,15 @@ public class MybatisExtension implements Extension {
     final boolean isAnnotated = am.isAnnotationPresent(SessionFactoryProvider.class);
     final boolean isSqlSessionFactory = am.getBaseType().equals(SqlSessionFactory.class);
     final Object[] logData = { am.getJavaMember().getDeclaringClass().getSimpleName(), am.getJavaMember().getName() };
+    if (isAnnotated) {
+      this.indexedProducers
+          .remove(am.getJavaMember().getDeclaringClass().getName() + "#" + am.getJavaMember().getName());
+    }
     if (isAnnotated && isSqlSessionFactory) {
       LOGGER.log(Level.INFO, "MyBatis CDI Module - SqlSessionFactory producer {0}.{1}", logData);
-      this.sessionProducers.add(new BeanKey((Class<Type>) (Type) SqlSession.class, am.getAnnotations()));
+      if (!am.isAnnotationPresent(ReadReplica.class)) {
+        this.sessionProducers.add(new BeanKey((Class<Type>) (Type) SqlSession.class, am.getAnnotations()));
+      }
     } else if (isAnnotated && !isSqlSessionFactory) {
       LOGGER.log(Level.SEVERE, "MyBatis CDI Module - Invalid return type (Must be SqlSessionFactory): {0}.{1}",
           logData);
@@ -104,15 +176,20 @@ public class MybatisExtension implements Extension {
   }
 
   /**
-   * Collect all targets to match Mappers and Session providers dependency.
+   * Collect all targets to match Mappers and Session providers dependency. Only the keys of injection points that may
+   * refer to a mapper or an SqlSession are retained: without an index, a mapper type may still be discovered after the
+   * bean that uses it, so interfaces are kept until all types are known; with one, the mappers are known already.
    *
+   * @param <T> the generic type
    * @param <X> the generic type
    * @param event the event
    */
-  protected <X> void processInjectionTarget(@Observes ProcessInjectionTarget<X> event) {
-    final InjectionTarget<X> it = event.getInjectionTarget();
-    for (final InjectionPoint ip : it.getInjectionPoints()) {
-      injectionPoints.add(ip);
+  protected <T, X> void processInjectionPoint(@Observes ProcessInjectionPoint<T, X> event) {
+    final InjectionPoint ip = event.getInjectionPoint();
+    final Type type = ip.getAnnotated().getBaseType();
+    if (SqlSession.class.equals(type) || this.mapperTypes.contains(type)
+        || !this.indexed && type instanceof Class && ((Class<?>) type).isInterface()) {
+      this.injectionTargets.add(new BeanKey((Class<Type>) type, ip.getAnnotated().getAnnotations()));
     }
   }
 
@@ -128,23 +205,22 @@ public class MybatisExtension implements Extension {
     Set<BeanKey> mappers = new HashSet<BeanKey>();
     Set<BeanKey> sessionTargets = new HashSet<BeanKey>();
 
-    for (InjectionPoint ip : injectionPoints) {
-      if (this.mapperTypes.contains(ip.getAnnotated().getBaseType())) {
+    for (BeanKey key : this.injectionTargets) {
+      if (this.mapperTypes.contains(key.type)) {
         LOGGER.log(Level.INFO, "MyBatis CDI Module - Found a bean, which needs a Mapper {0}",
-            new Object[] { ip.getAnnotated().getBaseType() });
-        mappers.add(new BeanKey((Class<Type>) ip.getAnnotated().getBaseType(), ip.getAnnotated().getAnnotations()));
-      } else if (SqlSession.class.equals(ip.getAnnotated().getBaseType())) {
-        sessionTargets
-            .add(new BeanKey((Class<Type>) ip.getAnnotated().getBaseType(), ip.getAnnotated().getAnnotations()));
+            new Object[] { key.type });
+        mappers.add(key);
+      } else if (SqlSession.class.equals(key.type)) {
+        sessionTargets.add(key);
       }
     }
-    this.injectionPoints.clear();
+    this.injectionTargets.clear();
 
     // Mappers -----------------------------------------------------------------
     for (BeanKey key : mappers) {
       LOGGER.log(Level.INFO, "MyBatis CDI Module - Managed Mapper dependency: {0}, {1}",
           new Object[] { key.getKey(), key.type.getName() });
-      abd.addBean(key.createBean(bm));
+      addBean(abd, key.createBean(bm));
     }
     this.mapperTypes.clear();
 
@@ -152,7 +228,7 @@ public class MybatisExtension implements Extension {
     for (BeanKey key : this.sessionProducers) {
       LOGGER.log(Level.INFO, "MyBatis CDI Module - Managed SqlSession: {0}, {1}",
           new Object[] { key.getKey(), key.type.getName() });
-      abd.addBean(key.createBean(bm));
+      addBean(abd, key.createBean(bm));
       sessionTargets.remove(key);
     }
     this.sessionProducers.clear();
@@ -163,6 +239,72 @@ public class MybatisExtension implements Extension {
           new Object[] { key.getKey(), key.type.getName() });
     }
 
+    // Indexed producers the container did not discover -----------------------
+    for (String producer : this.indexedProducers) {
+      LOGGER.log(Level.WARNING,
+          "MyBatis CDI Module - Indexed SqlSessionFactory producer was not discovered, is it in a bean archive? {0}",
+          producer);
+    }
+    this.indexedProducers.clear();
+
+  }
+
+  private void addBean(AfterBeanDiscovery abd, MyBatisBean bean) {
+    abd.addBean(bean);
+    this.beans.add(bean);
+  }
+
+  /**
+   * Bind all mybatis injectable beans to their SqlSessionManager, so that creating them needs no container lookups,
+   * install the caches they select, reporting the missing ones as deployment problems, and run the warm-up if it is
+   * enabled.
+   *
+   * @param adv the adv
+   * @param bm the bm
+   */
+  protected void afterDeploymentValidation(@Observes AfterDeploymentValidation adv, BeanManager bm) {
+    CreationalContext<?> creationalContext = bm.createCreationalContext(null);
+    for (MyBatisBean bean : this.beans) {
+      try {
+        bean.bind(bm, creationalContext);
+      } catch (MybatisCdiConfigurationException e) {
+        LOGGER.log(Level.WARNING, "MyBatis CDI Module - Could not bind {0}: {1}",
+            new Object[] { bean.getId(), e.getMessage() });
+      }
+      try {
+        bean.bindCache(bm, creationalContext);
+      } catch (MybatisCdiConfigurationException e) {
+        // unlike the factory, which is looked up again on first use, a missing cache would go unnoticed
+        adv.addDeploymentProblem(e);
+      }
+    }
+    TransactionEvents.init(bm);
+    RequestSessions.init(bm);
+    if (MybatisCdiProperties.isWarmUp() && !bm.getBeans(SqlSessionManagerRegistry.class).isEmpty()) {
+      WarmUp.run(this.beans, CDIUtils.getRegistry(bm, creationalContext), creationalContext);
+    }
+    this.beans.clear();
+  }
+
+  /**
+   * Close the factories of the tenants, stop the executors of the asynchronous mapper methods and of the transaction
+   * events, forget the replaced factories, the JTA synchronization registry and the result caches, and unregister the
+   * MBeans published by this module.
+   *
+   * @param bs the bs
+   */
+  protected void beforeShutdown(@Observes BeforeShutdown bs) {
+    TenantManagers.shutdown();
+    InFlightManagers.reset();
+    ReplacedManagers.reset();
+    RequestSessions.reset();
+    MapperExecutors.shutdownAll();
+    JtaSessions.reset();
+    ResultCaches.reset();
+    TransactionEvents.shutdown();
+    if (Metrics.ENABLED) {
+      Metrics.unregisterAll();
+    }
   }
 
   /**
@@ -245,7 +387,7 @@ public class MybatisExtension implements Extension {
       return !(this.key == null ? other.key != null : !this.key.equals(other.key));
     }
 
-    public Bean createBean(BeanManager bm) {
+    public MyBatisBean createBean(BeanManager bm) {
       return new MyBatisBean(this.key, this.type, new HashSet<Annotation>(this.qualifiers), this.sqlSessionManagerName);
     }
 
@@ -0,0 +1,103 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor that writes, at compile time, an index of the {@code @Mapper} interfaces and the
+ * {@code @SessionFactoryProvider} producers of a module. The {@link MybatisExtension} reads it at startup, so mappers
+ * living in archives the container does not scan are found as well.
+ * <p>
+ * Each line of the index is either {@code mapper <interface>} or {@code producer <class>#<method>}, using binary names.
+ */
+@SupportedAnnotationTypes({ "org.mybatis.cdi.Mapper", "org.mybatis.cdi.SessionFactoryProvider" })
+public class MybatisIndexProcessor extends AbstractProcessor {
+
+  /**
+   * Location of the index in the class path.
+   */
+  public static final String INDEX = "META-INF/mybatis-cdi/index";
+
+  static final String MAPPER = "mapper";
+
+  static final String PRODUCER = "producer";
+
+  private final Set<String> entries = new TreeSet<String>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    if (roundEnv.processingOver()) {
+      if (!this.entries.isEmpty()) {
+        writeIndex();
+      }
+      return false;
+    }
+    for (Element element : roundEnv.getElementsAnnotatedWith(Mapper.class)) {
+      if (element.getKind() == ElementKind.INTERFACE) {
+        this.entries.add(MAPPER + " " + binaryName(element));
+      }
+    }
+    for (Element element : roundEnv.getElementsAnnotatedWith(SessionFactoryProvider.class)) {
+      if (element.getKind() == ElementKind.METHOD) {
+        this.entries
+            .add(PRODUCER + " " + binaryName(element.getEnclosingElement()) + "#" + element.getSimpleName());
+      }
+    }
+    return false;
+  }
+
+  private String binaryName(Element type) {
+    return this.processingEnv.getElementUtils().getBinaryName((TypeElement) type).toString();
+  }
+
+  private void writeIndex() {
+    try {
+      FileObject file = this.processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+      PrintWriter writer = new PrintWriter(file.openWriter());
+      try {
+        for (String entry : this.entries) {
+          writer.println(entry);
+        }
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+          "Unable to write the MyBatis CDI index " + INDEX + ": " + e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,134 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The transaction of a thread, captured to continue it in tasks run by other threads, for instance when an executor
+ * runs each task on a thread of its own. The transaction is only bound to the thread of a task while the task runs.
+ * <p>
+ * The sessions of a transaction are not thread safe, so the tasks must run one after another while the thread that
+ * captured the transaction waits for them, and they must complete before the transactional method returns.
+ *
+ * <pre>
+ * PropagatedTransaction transaction = PropagatedTransaction.capture();
+ * executor.submit(transaction.wrap(task)).get();
+ * </pre>
+ */
+public final class PropagatedTransaction {
+
+  private final TransactionContext context;
+
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  private PropagatedTransaction(TransactionContext context) {
+    this.context = context;
+  }
+
+  /**
+   * Captures the transaction of the current thread.
+   *
+   * @return the captured transaction; if there is none, the tasks run without a transaction
+   */
+  public static PropagatedTransaction capture() {
+    return new PropagatedTransaction(TransactionContext.current());
+  }
+
+  /**
+   * Runs a task in the captured transaction on the current thread.
+   *
+   * @param task the task
+   * @throws IllegalStateException if the transaction has ended or another task runs in it
+   */
+  public void run(Runnable task) {
+    TransactionContext previous = bind();
+    try {
+      task.run();
+    } finally {
+      unbind(previous);
+    }
+  }
+
+  /**
+   * Calls a task in the captured transaction on the current thread.
+   *
+   * @param <T> the type of the result
+   * @param task the task
+   * @return the result of the task
+   * @throws Exception what the task throws
+   * @throws IllegalStateException if the transaction has ended or another task runs in it
+   */
+  public <T> T call(Callable<T> task) throws Exception {
+    TransactionContext previous = bind();
+    try {
+      return task.call();
+    } finally {
+      unbind(previous);
+    }
+  }
+
+  /**
+   * Wraps a task so that it runs in the captured transaction on the thread that runs it.
+   *
+   * @param task the task
+   * @return the wrapped task
+   */
+  public Runnable wrap(final Runnable task) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        PropagatedTransaction.this.run(task);
+      }
+    };
+  }
+
+  /**
+   * Wraps a task so that it runs in the captured transaction on the thread that calls it.
+   *
+   * @param <T> the type of the result
+   * @param task the task
+   * @return the wrapped task
+   */
+  public <T> Callable<T> wrap(final Callable<T> task) {
+    return new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        return PropagatedTransaction.this.call(task);
+      }
+    };
+  }
+
+  private TransactionContext bind() {
+    if (this.context != null && this.context.isReleased()) {
+      throw new IllegalStateException("The captured transaction has ended.");
+    }
+    if (!this.running.compareAndSet(false, true)) {
+      throw new IllegalStateException("Another task runs in the captured transaction.");
+    }
+    TransactionContext previous = TransactionContext.suspend();
+    TransactionContext.resume(this.context);
+    return previous;
+  }
+
+  private void unbind(TransactionContext previous) {
+    TransactionContext.suspend();
+    TransactionContext.resume(previous);
+    this.running.set(false);
+  }
+
+}
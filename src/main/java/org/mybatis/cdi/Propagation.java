@@ -0,0 +1,55 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+/**
+ * Enum of transaction propagation modes, with the same meaning as in EJB and JTA. A transaction exists when a
+ * {@link Transactional} method is running further up the call stack or, with the {@link JtaTransactionInterceptor},
+ * when a JTA transaction is active.
+ */
+public enum Propagation {
+
+  /**
+   * Join the current transaction, or start a new one if there is none.
+   */
+  REQUIRED,
+
+  /**
+   * Always start a new transaction, suspending the current one until the method returns.
+   */
+  REQUIRES_NEW,
+
+  /**
+   * Join the current transaction, or run without a transaction if there is none.
+   */
+  SUPPORTS,
+
+  /**
+   * Run without a transaction, suspending the current one until the method returns.
+   */
+  NOT_SUPPORTED,
+
+  /**
+   * Join the current transaction, or fail if there is none.
+   */
+  MANDATORY,
+
+  /**
+   * Run without a transaction, or fail if there is one.
+   */
+  NEVER
+
+}
@@ -0,0 +1,48 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import javax.enterprise.util.Nonbinding;
+import javax.inject.Qualifier;
+
+/**
+ * Declares a {@link SessionFactoryProvider} producer as a read replica of another factory. Mapper calls made in a
+ * {@code @Transactional(readOnly = true)} transaction are routed to one of the replicas of the factory the mapper is
+ * bound to. The replicas must be configured with the same mappers as their primary factory.
+ * <p>
+ * When a factory has several replicas, one of them is selected for each transaction as set by
+ * {@link MybatisCdiProperties#REPLICA_SELECTION}.
+ */
+@Qualifier
+@Retention(RUNTIME)
+@Target({ ElementType.METHOD, ElementType.FIELD, ElementType.PARAMETER, ElementType.TYPE })
+public @interface ReadReplica {
+
+  /**
+   * Returns the name of the primary factory, as given by its {@code @Named} qualifier.
+   *
+   * @return an empty string by default, which stands for the factory without qualifiers, user defined otherwise.
+   */
+  @Nonbinding
+  String value() default "";
+
+}
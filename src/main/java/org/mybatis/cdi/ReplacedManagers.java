@@ -0,0 +1,76 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ibatis.session.SqlSessionManager;
+
+/**
+ * Managers replaced at runtime through {@link SqlSessionManagerRegistry#replace}, so that the mappers and sessions
+ * injected before the replacement run on the new factory. The map is copied on each replacement and read without a
+ * lock; it stays empty, and costs one volatile read, unless a factory is replaced.
+ */
+final class ReplacedManagers {
+
+  private static volatile Map<SqlSessionManager, SqlSessionManager> replacements = Collections.emptyMap();
+
+  private ReplacedManagers() {
+    // this class cannot be instantiated
+  }
+
+  /**
+   * Gets the manager that currently replaces the given one.
+   *
+   * @param manager the manager a mapper or session is bound to
+   * @return its latest replacement, or the manager itself if it was not replaced
+   */
+  static SqlSessionManager current(SqlSessionManager manager) {
+    Map<SqlSessionManager, SqlSessionManager> map = replacements;
+    if (map.isEmpty()) {
+      return manager;
+    }
+    SqlSessionManager replacement = map.get(manager);
+    return replacement != null ? replacement : manager;
+  }
+
+  /**
+   * Routes the calls bound to a manager, or to any manager it already replaced, to another one.
+   *
+   * @param manager the replaced manager
+   * @param replacement the new manager
+   */
+  static synchronized void replace(SqlSessionManager manager, SqlSessionManager replacement) {
+    Map<SqlSessionManager, SqlSessionManager> map = new HashMap<SqlSessionManager, SqlSessionManager>(replacements);
+    for (Map.Entry<SqlSessionManager, SqlSessionManager> entry : map.entrySet()) {
+      if (entry.getValue() == manager) {
+        entry.setValue(replacement);
+      }
+    }
+    map.put(manager, replacement);
+    replacements = map;
+  }
+
+  /**
+   * Forgets all the replacements. Called when the container shuts down.
+   */
+  static synchronized void reset() {
+    replacements = Collections.emptyMap();
+  }
+
+}
@@ -0,0 +1,73 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.ibatis.session.SqlSessionManager;
+
+/**
+ * Read replicas of a factory. Both selection policies keep track of the read-only transactions running on each
+ * replica, using atomic counters only.
+ */
+final class ReplicaSet {
+
+  private final SqlSessionManager[] replicas;
+
+  private final AtomicIntegerArray inFlight;
+
+  private final AtomicInteger next = new AtomicInteger();
+
+  private final boolean leastInFlight;
+
+  ReplicaSet(List<SqlSessionManager> replicas, boolean leastInFlight) {
+    this.replicas = replicas.toArray(new SqlSessionManager[replicas.size()]);
+    this.inFlight = new AtomicIntegerArray(this.replicas.length);
+    this.leastInFlight = leastInFlight;
+  }
+
+  /**
+   * Selects a replica for a new transaction. Each call must be paired with a call to {@link #release(int)}.
+   *
+   * @return the index of the selected replica
+   */
+  int acquire() {
+    int index;
+    if (this.leastInFlight) {
+      index = 0;
+      for (int i = 1; i < this.replicas.length; i++) {
+        if (this.inFlight.get(i) < this.inFlight.get(index)) {
+          index = i;
+        }
+      }
+    } else {
+      index = (this.next.getAndIncrement() & Integer.MAX_VALUE) % this.replicas.length;
+    }
+    this.inFlight.incrementAndGet(index);
+    return index;
+  }
+
+  void release(int index) {
+    this.inFlight.decrementAndGet(index);
+  }
+
+  SqlSessionManager get(int index) {
+    return this.replicas[index];
+  }
+
+}
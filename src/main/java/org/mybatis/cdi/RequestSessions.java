@@ -0,0 +1,164 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ContextNotActiveException;
+import javax.enterprise.context.RequestScoped;
+import javax.enterprise.context.spi.Context;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionManager;
+
+/**
+ * Sessions kept open for the whole CDI request when {@link MybatisCdiProperties#EXTENDED_SESSIONS} is set. The
+ * transactions run during the request borrow them instead of opening their own, commit or roll them back when they
+ * end, and give them back without closing them, so a request acquires at most one connection per factory and executor
+ * type however many transactions it runs. The sessions are closed when the request context is destroyed.
+ * <p>
+ * A session is lent to one transaction at a time: a transaction started while the session is lent, such as a
+ * {@link Propagation#REQUIRES_NEW} one, opens a session of its own. So do transactions with a timeout or an isolation
+ * level, which need a session opened for them. The factory of an open session counts it as in flight, so that it is
+ * not closed before the request ends.
+ */
+@RequestScoped
+class RequestSessions {
+
+  static final boolean ENABLED = MybatisCdiProperties.isExtendedSessions();
+
+  private static final Logger LOGGER = Logger.getLogger(RequestSessions.class.getName());
+
+  private static volatile BeanManager beanManager;
+
+  private static volatile Bean<RequestSessions> bean;
+
+  private final Map<SqlSessionManager, SqlSession[]> sessions = new HashMap<SqlSessionManager, SqlSession[]>();
+
+  private final List<SqlSession> lent = new ArrayList<SqlSession>(2);
+
+  /**
+   * Resolves the bean once the deployment has been validated, so that looking the sessions of a request up only asks
+   * the request context for them.
+   *
+   * @param bm the bean manager
+   */
+  @SuppressWarnings("unchecked")
+  static void init(BeanManager bm) {
+    if (ENABLED) {
+      bean = (Bean<RequestSessions>) bm.resolve(bm.getBeans(RequestSessions.class));
+      beanManager = bm;
+    }
+  }
+
+  /**
+   * Forgets the bean. Called when the container shuts down.
+   */
+  static void reset() {
+    beanManager = null;
+    bean = null;
+  }
+
+  /**
+   * Gets the sessions of the active request.
+   *
+   * @return the sessions, or null if extended sessions are disabled or there is no active request
+   */
+  static RequestSessions current() {
+    BeanManager bm = beanManager;
+    if (bm == null) {
+      return null;
+    }
+    Context context;
+    try {
+      context = bm.getContext(RequestScoped.class);
+    } catch (ContextNotActiveException e) {
+      return null;
+    }
+    if (!context.isActive()) {
+      return null;
+    }
+    // the instance itself rather than a client proxy, so that it can be given back outside of the request
+    RequestSessions sessions = context.get(bean);
+    return sessions != null ? sessions : context.get(bean, bm.createCreationalContext(bean));
+  }
+
+  /**
+   * Lends the session of the given manager to a transaction, opening it the first time.
+   *
+   * @param manager the manager
+   * @param attribute the attributes of the transaction
+   * @return the session, or null if the transaction must open a session of its own
+   */
+  synchronized SqlSession lend(SqlSessionManager manager, TransactionAttribute attribute) {
+    if (attribute.getTimeout() > 0 || attribute.getIsolationLevel() != null) {
+      return null;
+    }
+    SqlSession[] byExecutorType = this.sessions.get(manager);
+    if (byExecutorType == null) {
+      byExecutorType = new SqlSession[ExecutorType.values().length];
+      this.sessions.put(manager, byExecutorType);
+    }
+    int index = attribute.getExecutorType().ordinal();
+    SqlSession session = byExecutorType[index];
+    if (session == null) {
+      session = manager.openSession(attribute.getExecutorType());
+      // keeps the manager open until the request ends
+      InFlightManagers.retain(manager);
+      byExecutorType[index] = session;
+    } else if (this.lent.contains(session)) {
+      return null;
+    }
+    this.lent.add(session);
+    return session;
+  }
+
+  synchronized void giveBack(SqlSession session) {
+    this.lent.remove(session);
+  }
+
+  @PreDestroy
+  synchronized void close() {
+    for (Map.Entry<SqlSessionManager, SqlSession[]> entry : this.sessions.entrySet()) {
+      for (SqlSession session : entry.getValue()) {
+        if (session != null) {
+          closeQuietly(session);
+          InFlightManagers.release(entry.getKey());
+        }
+      }
+    }
+    this.sessions.clear();
+    this.lent.clear();
+  }
+
+  private static void closeQuietly(SqlSession session) {
+    try {
+      session.close();
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "MyBatis CDI Module - Unable to close a request session", e);
+    }
+  }
+
+}
@@ -0,0 +1,272 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Result caches of the mapper methods annotated with {@link CacheResult}, indexed by the namespaces whose writes
+ * invalidate them. They are registered with their mapper bean, before any call, so that no write is missed.
+ */
+final class ResultCaches {
+
+  private static final Object NULL = new Object();
+
+  private static final ConcurrentMap<Method, ResultCache> CACHES = new ConcurrentHashMap<Method, ResultCache>();
+
+  private static final ConcurrentMap<String, List<ResultCache>> BY_NAMESPACE =
+      new ConcurrentHashMap<String, List<ResultCache>>();
+
+  private static volatile boolean active;
+
+  private ResultCaches() {
+    // this class cannot be instantiated
+  }
+
+  /**
+   * Creates the caches of the annotated methods of a mapper, unless they exist already.
+   *
+   * @param type the mapper interface
+   */
+  static void register(Class<?> type) {
+    for (Method method : type.getMethods()) {
+      CacheResult annotation = method.getAnnotation(CacheResult.class);
+      if (annotation == null || CACHES.containsKey(method)) {
+        continue;
+      }
+      String namespace = type.getName();
+      ResultCache cache = new ResultCache(namespace + "." + method.getName(), annotation, namespace);
+      if (CACHES.putIfAbsent(method, cache) != null) {
+        continue;
+      }
+      for (String key : cache.namespaces) {
+        List<ResultCache> caches = BY_NAMESPACE.get(key);
+        if (caches == null) {
+          List<ResultCache> created = new CopyOnWriteArrayList<ResultCache>();
+          caches = BY_NAMESPACE.putIfAbsent(key, created);
+          if (caches == null) {
+            caches = created;
+          }
+        }
+        caches.add(cache);
+      }
+      if (Metrics.ENABLED) {
+        Metrics.registerCache(cache.cache, cache.cache.getId());
+      }
+      active = true;
+    }
+  }
+
+  /**
+   * Tells whether any method caches its results.
+   *
+   * @return true if there is at least one cache
+   */
+  static boolean isActive() {
+    return active;
+  }
+
+  /**
+   * Gets the cache of a mapper method.
+   *
+   * @param method the mapper method
+   * @return the cache or null if the method does not cache its results
+   */
+  static ResultCache get(Method method) {
+    return active ? CACHES.get(method) : null;
+  }
+
+  /**
+   * Takes note of a write to the given namespace. It invalidates the caches when the current transaction commits, or
+   * right away if the write was not made in a transaction.
+   *
+   * @param namespace the namespace of the statement
+   * @param enlisted whether the write was made on the session of a transaction
+   */
+  static void written(String namespace, boolean enlisted) {
+    if (!BY_NAMESPACE.containsKey(namespace)) {
+      return;
+    }
+    TransactionContext context = TransactionContext.current();
+    if (context != null) {
+      context.recordWrite(namespace);
+    } else {
+      invalidate(Collections.singleton(namespace), enlisted ? JtaSessions.getRegistry() : null);
+    }
+  }
+
+  /**
+   * Invalidates the caches of the given namespaces, after the JTA transaction commits if a registry is given.
+   *
+   * @param namespaces the namespaces written to by a committed transaction
+   * @param registry the registry of the JTA transaction still to be committed, or null
+   */
+  static void invalidate(final Collection<String> namespaces, TransactionSynchronizationRegistry registry) {
+    if (namespaces.isEmpty()) {
+      return;
+    }
+    if (registry == null) {
+      invalidate(namespaces);
+      return;
+    }
+    registry.registerInterposedSynchronization(new Synchronization() {
+      @Override
+      public void beforeCompletion() {
+        // nothing to do
+      }
+
+      @Override
+      public void afterCompletion(int status) {
+        if (status == Status.STATUS_COMMITTED) {
+          invalidate(namespaces);
+        }
+      }
+    });
+  }
+
+  private static void invalidate(Collection<String> namespaces) {
+    for (String namespace : namespaces) {
+      List<ResultCache> caches = BY_NAMESPACE.get(namespace);
+      if (caches != null) {
+        for (ResultCache cache : caches) {
+          cache.invalidate();
+        }
+      }
+    }
+  }
+
+  /**
+   * Forgets all the caches. Called when the container shuts down.
+   */
+  static void reset() {
+    active = false;
+    CACHES.clear();
+    BY_NAMESPACE.clear();
+  }
+
+  /**
+   * Results of one mapper method. A result loaded while the cache was being invalidated is not kept, as it may have
+   * been read before the write was committed.
+   */
+  static final class ResultCache {
+
+    private final BoundedCache cache;
+
+    private final String[] namespaces;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    ResultCache(String id, CacheResult annotation, String namespace) {
+      this.cache = new BoundedCache(id, annotation.maximumSize(), annotation.ttl(), annotation.unit());
+      String[] tags = annotation.tags();
+      this.namespaces = Arrays.copyOf(tags, tags.length + 1);
+      this.namespaces[tags.length] = namespace;
+    }
+
+    /**
+     * Gets the generation to pass to {@link #put} for a result about to be loaded.
+     *
+     * @return the current generation
+     */
+    long generation() {
+      return this.generation.get();
+    }
+
+    /**
+     * Tells whether the current transaction wrote to one of the namespaces of this cache, so that it must not be used.
+     *
+     * @return true if the cache must be bypassed
+     */
+    boolean isBypassed() {
+      TransactionContext context = TransactionContext.current();
+      return context != null && context.hasWritten(this.namespaces);
+    }
+
+    /**
+     * Looks a result up.
+     *
+     * @param key the key built by {@link #key}
+     * @return the cached result, to be passed to {@link #unwrap}, or null if there is none
+     */
+    Object get(Object key) {
+      return this.cache.getObject(key);
+    }
+
+    void put(Object key, long loadedAt, Object result) {
+      this.cache.putObject(key, result == null ? NULL : result);
+      if (this.generation.get() != loadedAt) {
+        this.cache.removeObject(key);
+      }
+    }
+
+    void invalidate() {
+      this.generation.incrementAndGet();
+      this.cache.clear();
+    }
+
+    static Object key(Object target, Object[] args) {
+      return new Key(target, args);
+    }
+
+    static Object unwrap(Object cached) {
+      return cached == NULL ? null : cached;
+    }
+
+  }
+
+  private static final class Key {
+
+    private final Object target;
+
+    private final Object[] args;
+
+    private final int hash;
+
+    Key(Object target, Object[] args) {
+      this.target = target;
+      this.args = args == null ? new Object[0] : args;
+      this.hash = 31 * System.identityHashCode(target) + Arrays.deepHashCode(this.args);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return this.target == other.target && Arrays.deepEquals(this.args, other.args);
+    }
+
+  }
+
+}
@@ -22,12 +22,24 @@ import java.io.Serializable;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import javax.enterprise.context.spi.CreationalContext;
 
-import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.binding.MapperMethod;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionManager;
 
 /**
+ * Serializable handler behind injected mappers and {@code SqlSession}s. Each call runs on the session of the current
+ * transaction, local or JTA, or outside of a transaction on a session opened for the call. Mapper methods are executed
+ * through the {@code MapperMethod} bound once per method, on the
+ * {@link MyBatisBean#acquireCurrentManager current manager} of the bean, or on one of its read replicas in a read-only
+ * transaction. A transaction keeps using the manager its first call on the bean was resolved to.
  *
  * @author Frank D. Martinez [mnesarco]
  */
@@ -35,6 +47,16 @@ public class SerializableMapperProxy implements InvocationHandler, Serializable
 
   private static final long serialVersionUID = 1L;
 
+  private static final Set<String> WRITE_METHODS = new HashSet<String>(Arrays.asList("insert", "update", "delete"));
+
+  // the methods the manager runs on a session of its own outside of a managed session
+  private static final Set<String> STATEMENT_METHODS = new HashSet<String>(Arrays.asList("selectOne", "selectList",
+      "selectMap", "selectCursor", "select", "insert", "update", "delete", "flushStatements"));
+
+  private transient SqlSessionManager manager;
+
+  private transient ReplicaSet replicas;
+
   private transient Object mapper;
 
   private final MyBatisBean bean;
@@ -50,27 +72,165 @@ public class SerializableMapperProxy implements InvocationHandler, Serializable
   public SerializableMapperProxy(MyBatisBean bean, CreationalContext creationalContext) {
     this.bean = bean;
     this.creationalContext = creationalContext;
-    this.mapper = getMapper();
+    bind();
   }
 
   @Override
   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return invokeDelegate(this.mapper, method, args);
+    }
+    String tenant = TenantManagers.tenantOf(this.manager);
+    // a transaction keeps running on the manager it started on, whatever replaced it since
+    SqlSessionManager pinned = TransactionContext.pinned(this.manager, tenant);
+    if (pinned != null) {
+      return invoke(pinned, tenant, method, args);
+    }
+    // counted as in flight from its resolution, so that it cannot be closed before the call has run
+    SqlSessionManager owner = this.bean.acquireCurrentManager(this.creationalContext, tenant);
+    try {
+      return invoke(owner, tenant, method, args);
+    } finally {
+      InFlightManagers.release(owner);
+    }
+  }
+
+  private Object invoke(SqlSessionManager owner, String tenant, Method method, Object[] args) throws Throwable {
+    SqlSessionManager target = owner != this.manager ? owner : TransactionContext.route(this.manager, this.replicas);
+    if (AsyncMapperMethod.isAsync(method) && Modifier.isAbstract(method.getModifiers())) {
+      return this.bean.getAsyncMapperMethod(method, this.manager.getConfiguration()).submit(target, args,
+          Metrics.mapperMethod(method));
+    }
+    SqlSession session = TransactionContext.enlist(target);
+    if (session != null) {
+      TransactionContext.pin(this.manager, tenant, owner);
+    } else if (JtaSessions.ENABLED) {
+      session = JtaSessions.enlist(target);
+    }
+    if (SqlSession.class.equals(this.bean.type)) {
+      Object result = session != null ? invokeDelegate(session, method, args)
+          : STATEMENT_METHODS.contains(method.getName()) ? invokeInOwnSession(target, method, args)
+              : invokeDelegate(target, method, args);
+      if (WRITE_METHODS.contains(method.getName())) {
+        TransactionContext batch = TransactionContext.currentBatch();
+        if (batch != null) {
+          batch.countWrite(target);
+        }
+        if (ResultCaches.isActive() && args != null && args[0] instanceof String) {
+          ResultCaches.written(namespaceOf(target.getConfiguration(), (String) args[0]), session != null);
+        }
+      }
+      return result;
+    }
+    if (!Modifier.isAbstract(method.getModifiers())) {
+      // default mapper methods
+      return invokeDelegate(session != null ? session.getMapper(this.bean.type)
+          : owner != this.manager ? owner.getMapper(this.bean.type) : this.mapper, method, args);
+    }
+    if (!Metrics.ENABLED) {
+      return execute(owner, target, session, method, args);
+    }
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      Object result = execute(owner, target, session, method, args);
+      failed = false;
+      return result;
+    } finally {
+      Metrics.mapperMethod(method).record(start, failed);
+    }
+  }
+
+  private Object execute(SqlSessionManager owner, SqlSessionManager target, SqlSession session, Method method,
+      Object[] args) {
+    // bound to the configuration of the primary factory, which replicas and replacements are checked to mirror
+    Configuration configuration = this.manager.getConfiguration();
+    MapperMethod mapperMethod = this.bean.getMapperMethod(method, configuration);
+    ResultCaches.ResultCache resultCache = ResultCaches.get(method);
+    if (resultCache != null && !resultCache.isBypassed()) {
+      return executeCached(resultCache, owner, target, session, mapperMethod, args);
+    }
+    Object result = session == null ? executeInOwnSession(target, mapperMethod, args)
+        : mapperMethod.execute(session, args);
+    if (session != null) {
+      TransactionContext batch = TransactionContext.currentBatch();
+      if (batch != null && this.bean.isWrite(method, configuration)) {
+        batch.countWrite(target);
+      }
+    }
+    if (ResultCaches.isActive() && this.bean.isWrite(method, configuration)) {
+      ResultCaches.written(this.bean.type.getName(), session != null);
+    }
+    return result;
+  }
+
+  private static Object executeCached(ResultCaches.ResultCache resultCache, SqlSessionManager owner,
+      SqlSessionManager target, SqlSession session, MapperMethod mapperMethod, Object[] args) {
+    Object key = ResultCaches.ResultCache.key(owner, args);
+    Object cached = resultCache.get(key);
+    if (cached != null) {
+      return ResultCaches.ResultCache.unwrap(cached);
+    }
+    long generation = resultCache.generation();
+    Object result = session == null ? executeInOwnSession(target, mapperMethod, args)
+        : mapperMethod.execute(session, args);
+    resultCache.put(key, generation, result);
+    return result;
+  }
+
+  private static Object executeInOwnSession(SqlSessionManager target, MapperMethod mapperMethod, Object[] args) {
+    // what the manager does outside of a managed session, without looking it up
+    SqlSession session = target.openSession();
+    try {
+      Object result = mapperMethod.execute(session, args);
+      session.commit();
+      return result;
+    } catch (RuntimeException e) {
+      session.rollback();
+      throw e;
+    } finally {
+      session.close();
+    }
+  }
+
+  private Object invokeInOwnSession(SqlSessionManager target, Method method, Object[] args) throws Throwable {
+    // as executeInOwnSession, for the statements run through an injected SqlSession
+    SqlSession session = target.openSession();
+    try {
+      Object result = invokeDelegate(session, method, args);
+      session.commit();
+      return result;
+    } catch (Throwable t) {
+      session.rollback();
+      throw t;
+    } finally {
+      session.close();
+    }
+  }
+
+  private static String namespaceOf(Configuration configuration, String statement) {
+    // short ids are resolved to the full id of their statement
+    String id = configuration.hasStatement(statement) ? configuration.getMappedStatement(statement).getId() : statement;
+    return id.substring(0, Math.max(0, id.lastIndexOf('.')));
+  }
+
+  private Object invokeDelegate(Object delegate, Method method, Object[] args) throws Throwable {
     try {
-      return method.invoke(this.mapper, args);
+      return method.invoke(delegate, args);
     } catch (InvocationTargetException e) {
       throw e.getTargetException();
     }
   }
 
-  private Object getMapper() {
-    SqlSessionFactory factory = CDIUtils.findSqlSessionFactory(this.bean.sqlSessionFactoryName, this.bean.qualifiers,
-        this.creationalContext);
-    return CDIUtils.getRegistry(this.creationalContext).getManager(factory).getMapper(this.bean.type);
+  private void bind() {
+    this.manager = this.bean.getManager(this.creationalContext);
+    this.replicas = this.bean.getReplicas(this.creationalContext);
+    this.mapper = SqlSession.class.equals(this.bean.type) ? this.manager : this.manager.getMapper(this.bean.type);
   }
 
   private void readObject(ObjectInputStream is) throws ClassNotFoundException, IOException {
     is.defaultReadObject();
-    this.mapper = getMapper();
+    bind();
   }
 
   private void writeObject(ObjectOutputStream os) throws IOException {
@@ -15,53 +15,497 @@
  */
 package org.mybatis.cdi;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Any;
-import javax.enterprise.inject.Instance;
+import javax.enterprise.inject.Default;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
 import javax.inject.Inject;
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionManager;
 
 /**
+ * Managers of the {@code SqlSessionFactory}s of the application. The factories produced by the
+ * {@link SessionFactoryProvider} producers are registered when the registry is initialized, and factories can be
+ * registered, replaced and retired while the application runs. The map of the managers is copied on each change, so
+ * lookups never take a lock; a replaced or retired manager is closed once its transactions have drained.
  *
  * @author Frank D. Martinez [mnesarco]
  */
 @ApplicationScoped
 public class SqlSessionManagerRegistry {
 
-  private Map<SqlSessionFactory, SqlSessionManager> managers;
+  private static final Logger LOGGER = Logger.getLogger(SqlSessionManagerRegistry.class.getName());
+
+  private volatile Map<SqlSessionFactory, SqlSessionManager> managers;
+
+  // the registered factory of each manager, including the replaced ones still running transactions
+  private volatile Map<SqlSessionManager, SqlSessionFactory> factories;
+
+  private Map<SqlSessionManager, ReplicaSet> replicas;
+
+  private Set<SqlSessionManager> pinned;
 
   @Inject
-  @Any
-  private Instance<SqlSessionFactory> factories;
+  private BeanManager beanManager;
 
   /**
-   * Inits the SqlSessionManagerRegistry.
+   * Inits the SqlSessionManagerRegistry. Factories are built one after another, or in parallel when
+   * {@link MybatisCdiProperties#INIT_THREADS} is greater than one, and the time spent on each of them is logged.
    */
   @PostConstruct
   public void init() {
-    if (this.factories.isUnsatisfied()) {
+    Set<Bean<?>> beans = this.beanManager.getBeans(SqlSessionFactory.class,
+        new CDIUtils.SerializableAnyAnnotationLiteral());
+    if (beans.isEmpty()) {
       throw new MybatisCdiConfigurationException("There are no SqlSessionFactory producers properly configured.");
     }
+    List<FactoryInitializer> initializers = new ArrayList<FactoryInitializer>(beans.size());
+    for (Bean<?> bean : beans) {
+      initializers.add(new FactoryInitializer(bean, this.beanManager));
+    }
+    long start = System.nanoTime();
+    int threads = Math.min(MybatisCdiProperties.getInitThreads(), initializers.size());
+    if (threads > 1) {
+      initInParallel(initializers, threads);
+    } else {
+      for (FactoryInitializer initializer : initializers) {
+        initializer.call();
+      }
+    }
     Map<SqlSessionFactory, SqlSessionManager> m = new HashMap<SqlSessionFactory, SqlSessionManager>();
-    for (SqlSessionFactory factory : this.factories) {
-      SqlSessionManager manager = SqlSessionManager.newInstance(factory);
-      m.put(factory, manager);
+    Map<SqlSessionManager, SqlSessionFactory> f = new HashMap<SqlSessionManager, SqlSessionFactory>();
+    for (FactoryInitializer initializer : initializers) {
+      LOGGER.log(Level.INFO, "MyBatis CDI Module - SqlSessionFactory {0} initialized in {1} ms",
+          new Object[] { initializer.name, TimeUnit.NANOSECONDS.toMillis(initializer.elapsed) });
+      m.put(initializer.factory, initializer.manager);
+      f.put(initializer.manager, initializer.factory);
+      InFlightManagers.track(initializer.manager);
+      Metrics.registerFactory(initializer.manager, initializer.name);
     }
+    LOGGER.log(Level.INFO, "MyBatis CDI Module - {0} SqlSessionFactories initialized in {1} ms using {2} thread(s)",
+        new Object[] { initializers.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+            Math.max(threads, 1) });
     this.managers = Collections.unmodifiableMap(m);
+    this.factories = Collections.unmodifiableMap(f);
+    this.replicas = findReplicas(initializers);
+    registerTenants(initializers);
+    this.pinned = findPinned(initializers, this.replicas);
+  }
+
+  private static Set<SqlSessionManager> findPinned(List<FactoryInitializer> initializers,
+      Map<SqlSessionManager, ReplicaSet> replicas) {
+    Set<SqlSessionManager> pinned = new HashSet<SqlSessionManager>(replicas.keySet());
+    for (FactoryInitializer initializer : initializers) {
+      if (getReadReplica(initializer.bean) != null || getTenantTemplate(initializer.bean) != null) {
+        pinned.add(initializer.manager);
+      }
+    }
+    return pinned;
+  }
+
+  private void registerTenants(List<FactoryInitializer> initializers) {
+    TenantResolver resolver = null;
+    for (FactoryInitializer initializer : initializers) {
+      TenantTemplate template = getTenantTemplate(initializer.bean);
+      if (template == null) {
+        continue;
+      }
+      if (resolver == null) {
+        resolver = findTenantResolver();
+      }
+      TenantManagers.register(initializer.manager, initializer.name, resolver, template);
+      LOGGER.log(Level.INFO, "MyBatis CDI Module - SqlSessionFactory {0} is a tenant template", initializer.name);
+    }
+  }
+
+  private TenantResolver findTenantResolver() {
+    Set<Bean<?>> beans = this.beanManager.getBeans(TenantResolver.class);
+    if (beans.isEmpty()) {
+      throw new MybatisCdiConfigurationException("There is no TenantResolver for the @TenantTemplate factories.");
+    }
+    Bean<?> bean = this.beanManager.resolve(beans);
+    return (TenantResolver) this.beanManager.getReference(bean, TenantResolver.class,
+        this.beanManager.createCreationalContext(bean));
+  }
+
+  private static Map<SqlSessionManager, ReplicaSet> findReplicas(List<FactoryInitializer> initializers) {
+    Map<SqlSessionManager, List<SqlSessionManager>> byPrimary =
+        new HashMap<SqlSessionManager, List<SqlSessionManager>>();
+    for (FactoryInitializer replica : initializers) {
+      ReadReplica readReplica = getReadReplica(replica.bean);
+      if (readReplica == null) {
+        continue;
+      }
+      FactoryInitializer primary = findPrimary(initializers, readReplica.value());
+      if (primary == null) {
+        throw new MybatisCdiConfigurationException(String.format(
+            "There is no SqlSessionFactory named '%s' for the read replica %s", readReplica.value(), replica.name));
+      }
+      checkMirrors(primary.factory.getConfiguration(), primary.name, replica.factory.getConfiguration(), replica.name);
+      List<SqlSessionManager> list = byPrimary.get(primary.manager);
+      if (list == null) {
+        list = new ArrayList<SqlSessionManager>();
+        byPrimary.put(primary.manager, list);
+      }
+      list.add(replica.manager);
+      LOGGER.log(Level.INFO, "MyBatis CDI Module - SqlSessionFactory {0} is a read replica of {1}",
+          new Object[] { replica.name, primary.name });
+    }
+    boolean leastInFlight = MybatisCdiProperties.isLeastInFlightReplicaSelection();
+    Map<SqlSessionManager, ReplicaSet> sets = new HashMap<SqlSessionManager, ReplicaSet>();
+    for (Map.Entry<SqlSessionManager, List<SqlSessionManager>> entry : byPrimary.entrySet()) {
+      sets.put(entry.getKey(), new ReplicaSet(entry.getValue(), leastInFlight));
+    }
+    return sets;
+  }
+
+  /**
+   * Checks that a factory whose sessions run the mapper methods bound to the configuration of another one, a read
+   * replica or a replacement, has the same statements. Tenants share the configuration of their template.
+   */
+  private static void checkMirrors(Configuration primary, String primaryName, Configuration mirror,
+      String mirrorName) {
+    if (primary == mirror) {
+      return;
+    }
+    if (primary.isUseActualParamName() != mirror.isUseActualParamName()) {
+      throw new MybatisCdiConfigurationException(String.format(
+          "The SqlSessionFactory %s does not name the parameters of the statements like %s", mirrorName, primaryName));
+    }
+    for (String id : primary.getMappedStatementNames()) {
+      // short names are aliases of the full ones, and may be ambiguous
+      if (id.indexOf('.') < 0) {
+        continue;
+      }
+      if (!mirror.hasStatement(id, false)
+          || mirror.getMappedStatement(id, false).getSqlCommandType() != primary.getMappedStatement(id, false)
+              .getSqlCommandType()) {
+        throw new MybatisCdiConfigurationException(String.format(
+            "The SqlSessionFactory %s has no statement %s like %s", mirrorName, id, primaryName));
+      }
+    }
+  }
+
+  private static FactoryInitializer findPrimary(List<FactoryInitializer> initializers, String name) {
+    for (FactoryInitializer initializer : initializers) {
+      Bean<?> bean = initializer.bean;
+      if (getReadReplica(bean) != null) {
+        continue;
+      }
+      if (name.length() == 0 ? hasDefaultQualifier(bean) : name.equals(bean.getName())) {
+        return initializer;
+      }
+    }
+    return null;
+  }
+
+  private static ReadReplica getReadReplica(Bean<?> bean) {
+    for (Annotation qualifier : bean.getQualifiers()) {
+      if (qualifier instanceof ReadReplica) {
+        return (ReadReplica) qualifier;
+      }
+    }
+    return null;
+  }
+
+  private static TenantTemplate getTenantTemplate(Bean<?> bean) {
+    for (Annotation qualifier : bean.getQualifiers()) {
+      if (qualifier instanceof TenantTemplate) {
+        return (TenantTemplate) qualifier;
+      }
+    }
+    return null;
+  }
+
+  private static boolean hasDefaultQualifier(Bean<?> bean) {
+    for (Annotation qualifier : bean.getQualifiers()) {
+      if (qualifier instanceof Default) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void initInParallel(List<FactoryInitializer> initializers, int threads) {
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new InitThreadFactory());
+    try {
+      List<Future<SqlSessionManager>> futures = executor.invokeAll(initializers);
+      for (Future<SqlSessionManager> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MybatisCdiConfigurationException("Interrupted while initializing the SqlSessionFactories.", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new MybatisCdiConfigurationException("Unable to initialize the SqlSessionFactories.", cause);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static String describe(Bean<?> bean) {
+    if (bean.getName() != null) {
+      return bean.getName();
+    }
+    StringBuilder sb = new StringBuilder();
+    for (Annotation qualifier : bean.getQualifiers()) {
+      if (!(qualifier instanceof Any) && !(qualifier instanceof Default)) {
+        sb.append('@').append(qualifier.annotationType().getSimpleName()).append(' ');
+      }
+    }
+    return sb.length() > 0 ? sb.toString().trim() : bean.getBeanClass().getSimpleName();
   }
 
   public SqlSessionManager getManager(SqlSessionFactory factory) {
     return this.managers.get(factory);
   }
 
+  /**
+   * Registers a factory built while the application runs.
+   *
+   * @param factory the factory
+   * @return the manager of the factory
+   */
+  public synchronized SqlSessionManager register(SqlSessionFactory factory) {
+    if (this.managers.containsKey(factory)) {
+      throw new MybatisCdiConfigurationException(
+          String.format("The SqlSessionFactory %s is already registered.", nameOf(factory)));
+    }
+    SqlSessionManager manager = open(factory);
+    Map<SqlSessionFactory, SqlSessionManager> m = new HashMap<SqlSessionFactory, SqlSessionManager>(this.managers);
+    m.put(factory, manager);
+    this.managers = Collections.unmodifiableMap(m);
+    putFactory(manager, factory);
+    LOGGER.log(Level.INFO, "MyBatis CDI Module - SqlSessionFactory {0} registered", nameOf(factory));
+    return manager;
+  }
+
+  /**
+   * Replaces a factory, for instance to point it to another database after a failover. The mappers and sessions bound
+   * to the factory run on the replacement from their next call, so it must have the same statements, and
+   * {@link #getManager} returns the manager of the replacement for the replaced factory. The transactions already
+   * running on the previous manager keep using it until they end, and it is closed then.
+   *
+   * @param factory the registered factory
+   * @param replacement the factory replacing it
+   * @return the manager of the replacement
+   * @throws MybatisCdiConfigurationException if the replacement lacks a statement of the factory
+   */
+  public synchronized SqlSessionManager replace(SqlSessionFactory factory, SqlSessionFactory replacement) {
+    SqlSessionManager manager = getReplaceable(factory);
+    checkMirrors(manager.getConfiguration(), nameOf(factory), replacement.getConfiguration(), nameOf(replacement));
+    SqlSessionManager created = open(replacement);
+    Map<SqlSessionFactory, SqlSessionManager> m = new HashMap<SqlSessionFactory, SqlSessionManager>(this.managers);
+    m.put(factory, created);
+    this.managers = Collections.unmodifiableMap(m);
+    putFactory(created, factory);
+    ReplacedManagers.replace(manager, created);
+    LOGGER.log(Level.INFO, "MyBatis CDI Module - SqlSessionFactory {0} replaced by {1}",
+        new Object[] { nameOf(factory), nameOf(replacement) });
+    close(manager);
+    return created;
+  }
+
+  /**
+   * Retires a factory. Its manager is closed once the transactions running on it have ended; the calls made afterwards
+   * through the mappers and sessions still bound to it fail with a {@link MybatisCdiConfigurationException}.
+   *
+   * @param factory the registered factory
+   */
+  public synchronized void retire(SqlSessionFactory factory) {
+    SqlSessionManager manager = getReplaceable(factory);
+    Map<SqlSessionFactory, SqlSessionManager> m = new HashMap<SqlSessionFactory, SqlSessionManager>(this.managers);
+    m.remove(factory);
+    this.managers = Collections.unmodifiableMap(m);
+    LOGGER.log(Level.INFO, "MyBatis CDI Module - SqlSessionFactory {0} retired", nameOf(factory));
+    close(manager);
+  }
+
+  private SqlSessionManager getReplaceable(SqlSessionFactory factory) {
+    SqlSessionManager manager = this.managers.get(factory);
+    if (manager == null) {
+      throw new MybatisCdiConfigurationException(
+          String.format("The SqlSessionFactory %s is not registered.", nameOf(factory)));
+    }
+    if (this.pinned.contains(manager)) {
+      throw new MybatisCdiConfigurationException(String.format(
+          "The SqlSessionFactory %s has read replicas, is a read replica or a tenant template, and cannot be changed.",
+          nameOf(factory)));
+    }
+    return manager;
+  }
+
+  private static SqlSessionManager open(SqlSessionFactory factory) {
+    DeadlineTransactionFactory.install(factory.getConfiguration());
+    SqlSessionManager manager = SqlSessionManager.newInstance(factory);
+    InFlightManagers.track(manager);
+    Metrics.registerFactory(manager, nameOf(factory));
+    return manager;
+  }
+
+  private void close(final SqlSessionManager manager) {
+    InFlightManagers.retire(manager, new Runnable() {
+      @Override
+      public void run() {
+        closeDrained(manager);
+      }
+    });
+  }
+
+  private void closeDrained(SqlSessionManager manager) {
+    removeFactory(manager);
+    MapperExecutors.shutdown(manager);
+    Metrics.unregisterFactory(manager);
+    DataSource dataSource = dataSourceOf(manager);
+    for (SqlSessionManager other : this.managers.values()) {
+      if (dataSourceOf(other) == dataSource) {
+        // still used by the replacement
+        return;
+      }
+    }
+    if (dataSource instanceof PooledDataSource) {
+      ((PooledDataSource) dataSource).forceCloseAll();
+    } else if (dataSource instanceof Closeable) {
+      try {
+        ((Closeable) dataSource).close();
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "MyBatis CDI Module - Could not close the DataSource of a retired SqlSessionFactory",
+            e);
+      }
+    }
+  }
+
+  private synchronized void putFactory(SqlSessionManager manager, SqlSessionFactory factory) {
+    Map<SqlSessionManager, SqlSessionFactory> f = new HashMap<SqlSessionManager, SqlSessionFactory>(this.factories);
+    f.put(manager, factory);
+    this.factories = Collections.unmodifiableMap(f);
+  }
+
+  private synchronized void removeFactory(SqlSessionManager manager) {
+    Map<SqlSessionManager, SqlSessionFactory> f = new HashMap<SqlSessionManager, SqlSessionFactory>(this.factories);
+    f.remove(manager);
+    this.factories = Collections.unmodifiableMap(f);
+  }
+
+  private static DataSource dataSourceOf(SqlSessionManager manager) {
+    Environment environment = manager.getConfiguration().getEnvironment();
+    return environment != null ? environment.getDataSource() : null;
+  }
+
+  private static String nameOf(SqlSessionFactory factory) {
+    Environment environment = factory.getConfiguration().getEnvironment();
+    return environment != null ? environment.getId() : factory.toString();
+  }
+
   public Collection<SqlSessionManager> getManagers() {
     return this.managers.values();
   }
 
+  /**
+   * Gets the registered factory the given manager runs the statements of: its own, the factory it replaced, or the
+   * {@link TenantTemplate} of a tenant.
+   *
+   * @param manager a manager used by a transaction
+   * @return the registered factory, or null if the manager is not one of this registry
+   */
+  public SqlSessionFactory getFactory(SqlSessionManager manager) {
+    SqlSessionManager template = TenantManagers.templateOf(manager);
+    return this.factories.get(template != null ? template : manager);
+  }
+
+  /**
+   * Gets the read replicas of a factory.
+   *
+   * @param manager the manager of the primary factory
+   * @return the replicas or null if the factory has none
+   */
+  ReplicaSet getReplicas(SqlSessionManager manager) {
+    return this.replicas.get(manager);
+  }
+
+  /**
+   * Builds one factory, which runs its producer and makes it parse the configuration, and wraps it in a manager.
+   */
+  private static final class FactoryInitializer implements Callable<SqlSessionManager> {
+
+    private final Bean<?> bean;
+
+    private final BeanManager beanManager;
+
+    private final String name;
+
+    private SqlSessionFactory factory;
+
+    private SqlSessionManager manager;
+
+    private long elapsed;
+
+    FactoryInitializer(Bean<?> bean, BeanManager beanManager) {
+      this.bean = bean;
+      this.beanManager = beanManager;
+      this.name = describe(bean);
+    }
+
+    @Override
+    public SqlSessionManager call() {
+      long start = System.nanoTime();
+      this.factory = (SqlSessionFactory) this.beanManager.getReference(this.bean, SqlSessionFactory.class,
+          this.beanManager.createCreationalContext(this.bean));
+      DeadlineTransactionFactory.install(this.factory.getConfiguration());
+      this.manager = SqlSessionManager.newInstance(this.factory);
+      this.elapsed = System.nanoTime() - start;
+      return this.manager;
+    }
+
+  }
+
+  private static final class InitThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "mybatis-cdi-init-" + this.count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
+
 }
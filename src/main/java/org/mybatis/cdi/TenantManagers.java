@@ -0,0 +1,307 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.SqlSessionManager;
+
+/**
+ * Managers of the tenants of a {@link TenantTemplate} factory. They are created the first time a tenant is used and
+ * kept in a concurrent map holding at most {@link TenantTemplate#maximumSize()} tenants: creating one more evicts the
+ * least recently used one, and a background thread evicts those unused for {@link TenantTemplate#idleTimeout()}
+ * seconds. The data source of an evicted tenant is destroyed once its
+ * transactions have ended, see {@link InFlightManagers}. Looking a tenant up takes no lock.
+ */
+final class TenantManagers {
+
+  private static final Logger LOGGER = Logger.getLogger(TenantManagers.class.getName());
+
+  private static final ConcurrentMap<SqlSessionManager, TenantManagers> BY_TEMPLATE =
+      new ConcurrentHashMap<SqlSessionManager, TenantManagers>();
+
+  // the template of each open tenant manager
+  private static final ConcurrentMap<SqlSessionManager, SqlSessionManager> TEMPLATES =
+      new ConcurrentHashMap<SqlSessionManager, SqlSessionManager>();
+
+  private static final long SWEEP_PERIOD_MILLIS = 1000L;
+
+  private static volatile boolean active;
+
+  private static ScheduledExecutorService sweeper;
+
+  private final SqlSessionManager template;
+
+  private final String name;
+
+  private final TenantResolver resolver;
+
+  private final int maximumSize;
+
+  private final long idleTimeoutNanos;
+
+  private final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<String, Tenant>();
+
+  private TenantManagers(SqlSessionManager template, String name, TenantResolver resolver, TenantTemplate settings) {
+    this.template = template;
+    this.name = name;
+    this.resolver = resolver;
+    int size = settings.maximumSize() >= 0 ? settings.maximumSize() : MybatisCdiProperties.getTenantsMaximumSize();
+    long timeout = settings.idleTimeout() >= 0 ? settings.idleTimeout() : MybatisCdiProperties.getTenantsIdleTimeout();
+    this.maximumSize = Math.max(size, 1);
+    this.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(timeout, 1));
+  }
+
+  /**
+   * Routes the calls made on a factory to the factories of its tenants.
+   *
+   * @param template the manager of the template factory
+   * @param name the name of the template factory
+   * @param resolver the resolver of the tenants
+   * @param settings the qualifier of the template, which bounds its tenants
+   */
+  static synchronized void register(SqlSessionManager template, String name, TenantResolver resolver,
+      TenantTemplate settings) {
+    BY_TEMPLATE.put(template, new TenantManagers(template, name, resolver, settings));
+    if (sweeper == null) {
+      ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+          new MapperExecutors.AsyncThreadFactory("mybatis-cdi-tenants-"));
+      executor.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          for (TenantManagers registered : BY_TEMPLATE.values()) {
+            registered.evictIdle();
+          }
+        }
+      }, SWEEP_PERIOD_MILLIS, SWEEP_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+      sweeper = executor;
+    }
+    active = true;
+  }
+
+  /**
+   * Gets the tenant the calls made on a manager belong to.
+   *
+   * @param manager the manager the mapper or session is bound to
+   * @return the current tenant if the given manager is a template, null otherwise
+   */
+  static String tenantOf(SqlSessionManager manager) {
+    if (!active) {
+      return null;
+    }
+    TenantManagers managers = BY_TEMPLATE.get(manager);
+    return managers != null ? managers.resolver.getTenant() : null;
+  }
+
+  /**
+   * Gets the manager a call must be made on and {@link InFlightManagers#acquire acquires} it, so that it cannot be
+   * evicted while the call runs. The caller releases it.
+   *
+   * @param manager the manager the mapper or session is bound to
+   * @param tenant the tenant of the call, as returned by {@link #tenantOf}
+   * @return the manager of the tenant if the given one is a template, the given one otherwise, or null if the given
+   *         manager has been retired
+   */
+  static SqlSessionManager acquire(SqlSessionManager manager, String tenant) {
+    TenantManagers managers = tenant != null && active ? BY_TEMPLATE.get(manager) : null;
+    if (managers != null) {
+      return managers.managerOf(tenant);
+    }
+    return InFlightManagers.acquire(manager) ? manager : null;
+  }
+
+  /**
+   * Gets the template a tenant manager was created from.
+   *
+   * @param manager a manager
+   * @return the manager of the template if the given one is the manager of a tenant, null otherwise
+   */
+  static SqlSessionManager templateOf(SqlSessionManager manager) {
+    return active ? TEMPLATES.get(manager) : null;
+  }
+
+  /**
+   * Evicts all the tenants and stops the background eviction. Called when the container shuts down.
+   */
+  static synchronized void shutdown() {
+    active = false;
+    if (sweeper != null) {
+      sweeper.shutdownNow();
+      sweeper = null;
+    }
+    for (TenantManagers managers : BY_TEMPLATE.values()) {
+      for (Tenant tenant : managers.tenants.values()) {
+        managers.evict(tenant, "shutdown");
+      }
+    }
+    BY_TEMPLATE.clear();
+    TEMPLATES.clear();
+  }
+
+  private SqlSessionManager managerOf(String id) {
+    while (true) {
+      Tenant tenant = this.tenants.get(id);
+      if (tenant == null) {
+        Tenant created = new Tenant(id);
+        tenant = this.tenants.putIfAbsent(id, created);
+        if (tenant == null) {
+          tenant = created;
+          if (this.tenants.size() > this.maximumSize) {
+            evictLeastRecentlyUsed(created);
+          }
+        }
+      }
+      SqlSessionManager manager = tenant.open();
+      if (manager != null) {
+        return manager;
+      }
+      // evicted in the meantime, look it up again
+    }
+  }
+
+  private void evictLeastRecentlyUsed(Tenant created) {
+    Tenant eldest = null;
+    for (Tenant tenant : this.tenants.values()) {
+      if (tenant != created && (eldest == null || tenant.lastUsed - eldest.lastUsed < 0)) {
+        eldest = tenant;
+      }
+    }
+    if (eldest != null) {
+      evict(eldest, "size");
+    }
+  }
+
+  private void evictIdle() {
+    long now = System.nanoTime();
+    List<Tenant> idle = new ArrayList<Tenant>();
+    for (Tenant tenant : this.tenants.values()) {
+      if (now - tenant.lastUsed > this.idleTimeoutNanos) {
+        idle.add(tenant);
+      }
+    }
+    for (Tenant tenant : idle) {
+      evict(tenant, "idle");
+    }
+  }
+
+  private void evict(Tenant tenant, String cause) {
+    if (this.tenants.remove(tenant.id, tenant)) {
+      LOGGER.log(Level.FINE, "MyBatis CDI Module - Evicting tenant {0} of {1} ({2})",
+          new Object[] { tenant.id, this.name, cause });
+      tenant.retire();
+    }
+  }
+
+  /**
+   * Factory and manager of one tenant, created on first use.
+   */
+  private final class Tenant {
+
+    private final String id;
+
+    private volatile long lastUsed = System.nanoTime();
+
+    private volatile SqlSessionManager manager;
+
+    private boolean retired;
+
+    private DataSource dataSource;
+
+    Tenant(String id) {
+      this.id = id;
+    }
+
+    /**
+     * Gets the manager of the tenant, creating it on first use, and acquires it.
+     *
+     * @return the acquired manager, or null if the tenant was evicted
+     */
+    SqlSessionManager open() {
+      SqlSessionManager current = this.manager;
+      if (current == null) {
+        current = create();
+      }
+      if (current == null || !InFlightManagers.acquire(current)) {
+        return null;
+      }
+      this.lastUsed = System.nanoTime();
+      return current;
+    }
+
+    private synchronized SqlSessionManager create() {
+      if (this.retired) {
+        return null;
+      }
+      if (this.manager == null) {
+        DataSource created = TenantManagers.this.resolver.createDataSource(this.id);
+        if (created == null) {
+          throw new MybatisCdiConfigurationException("The TenantResolver returned no DataSource for tenant " + this.id);
+        }
+        Environment environment = TenantManagers.this.template.getConfiguration().getEnvironment();
+        String environmentId = environment.getId() + "-" + this.id;
+        this.dataSource = created;
+        TenantSqlSessionFactory factory = new TenantSqlSessionFactory(TenantManagers.this.template.getConfiguration(),
+            new Environment(environmentId, environment.getTransactionFactory(), created));
+        SqlSessionManager opened = SqlSessionManager.newInstance(factory);
+        InFlightManagers.track(opened);
+        TEMPLATES.put(opened, TenantManagers.this.template);
+        Metrics.registerFactory(opened, environmentId);
+        this.manager = opened;
+        LOGGER.log(Level.FINE, "MyBatis CDI Module - Opened tenant {0} of {1}",
+            new Object[] { this.id, TenantManagers.this.name });
+      }
+      return this.manager;
+    }
+
+    synchronized void retire() {
+      this.retired = true;
+      final SqlSessionManager opened = this.manager;
+      if (opened == null) {
+        return;
+      }
+      InFlightManagers.retire(opened, new Runnable() {
+        @Override
+        public void run() {
+          close(opened);
+        }
+      });
+    }
+
+    private void close(SqlSessionManager opened) {
+      TEMPLATES.remove(opened);
+      MapperExecutors.shutdown(opened);
+      Metrics.unregisterFactory(opened);
+      try {
+        TenantManagers.this.resolver.destroyDataSource(this.id, this.dataSource);
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "MyBatis CDI Module - Could not destroy the DataSource of tenant " + this.id, e);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,50 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import javax.sql.DataSource;
+
+/**
+ * Bean choosing the tenant of each call made through a mapper or {@code SqlSession} bound to a {@link TenantTemplate}
+ * factory, and providing the data source of each tenant. It is called on the thread making the call, and from a
+ * background thread to release the data sources of idle tenants, so it is usually {@code @ApplicationScoped}.
+ */
+public interface TenantResolver {
+
+  /**
+   * Gets the tenant of the call being made.
+   *
+   * @return the tenant id, or null to use the template factory itself
+   */
+  String getTenant();
+
+  /**
+   * Creates the data source of a tenant. Called the first time the tenant is used, and again if it was evicted.
+   *
+   * @param tenant the tenant id
+   * @return the data source of the tenant
+   */
+  DataSource createDataSource(String tenant);
+
+  /**
+   * Releases the data source of a tenant evicted from the cache, once no transaction uses it anymore.
+   *
+   * @param tenant the tenant id
+   * @param dataSource the data source created for the tenant
+   */
+  void destroyDataSource(String tenant, DataSource dataSource);
+
+}
@@ -0,0 +1,170 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.ibatis.exceptions.ExceptionFactory;
+import org.apache.ibatis.executor.BatchExecutor;
+import org.apache.ibatis.executor.ErrorContext;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.ReuseExecutor;
+import org.apache.ibatis.executor.SimpleExecutor;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.TransactionIsolationLevel;
+import org.apache.ibatis.session.defaults.DefaultSqlSession;
+import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.TransactionFactory;
+import org.apache.ibatis.transaction.managed.ManagedTransactionFactory;
+
+/**
+ * Factory of a tenant: it opens sessions like {@code DefaultSqlSessionFactory} on the configuration of the
+ * {@link TenantTemplate} factory, but on the environment of the tenant. Its sessions never use the second level caches
+ * of the template, which are shared by all the tenants and would serve the rows of one tenant to another.
+ */
+final class TenantSqlSessionFactory implements SqlSessionFactory {
+
+  private final Configuration configuration;
+
+  private final Environment environment;
+
+  TenantSqlSessionFactory(Configuration configuration, Environment environment) {
+    this.configuration = configuration;
+    this.environment = environment;
+  }
+
+  @Override
+  public SqlSession openSession() {
+    return openSessionFromDataSource(this.configuration.getDefaultExecutorType(), null, false);
+  }
+
+  @Override
+  public SqlSession openSession(boolean autoCommit) {
+    return openSessionFromDataSource(this.configuration.getDefaultExecutorType(), null, autoCommit);
+  }
+
+  @Override
+  public SqlSession openSession(Connection connection) {
+    return openSessionFromConnection(this.configuration.getDefaultExecutorType(), connection);
+  }
+
+  @Override
+  public SqlSession openSession(TransactionIsolationLevel level) {
+    return openSessionFromDataSource(this.configuration.getDefaultExecutorType(), level, false);
+  }
+
+  @Override
+  public SqlSession openSession(ExecutorType execType) {
+    return openSessionFromDataSource(execType, null, false);
+  }
+
+  @Override
+  public SqlSession openSession(ExecutorType execType, boolean autoCommit) {
+    return openSessionFromDataSource(execType, null, autoCommit);
+  }
+
+  @Override
+  public SqlSession openSession(ExecutorType execType, TransactionIsolationLevel level) {
+    return openSessionFromDataSource(execType, level, false);
+  }
+
+  @Override
+  public SqlSession openSession(ExecutorType execType, Connection connection) {
+    return openSessionFromConnection(execType, connection);
+  }
+
+  @Override
+  public Configuration getConfiguration() {
+    return this.configuration;
+  }
+
+  /**
+   * Creates an executor like {@code Configuration.newExecutor}, plugins included, without the caching executor.
+   *
+   * @param transaction the transaction of the session
+   * @param execType the executor type, or null for the default one
+   * @return the executor
+   */
+  private Executor newExecutor(Transaction transaction, ExecutorType execType) {
+    ExecutorType type = execType != null ? execType : this.configuration.getDefaultExecutorType();
+    Executor executor;
+    if (type == ExecutorType.BATCH) {
+      executor = new BatchExecutor(this.configuration, transaction);
+    } else if (type == ExecutorType.REUSE) {
+      executor = new ReuseExecutor(this.configuration, transaction);
+    } else {
+      executor = new SimpleExecutor(this.configuration, transaction);
+    }
+    for (Interceptor interceptor : this.configuration.getInterceptors()) {
+      executor = (Executor) interceptor.plugin(executor);
+    }
+    return executor;
+  }
+
+  private TransactionFactory getTransactionFactory() {
+    return this.environment.getTransactionFactory() != null ? this.environment.getTransactionFactory()
+        : new ManagedTransactionFactory();
+  }
+
+  private SqlSession openSessionFromDataSource(ExecutorType execType, TransactionIsolationLevel level,
+      boolean autoCommit) {
+    Transaction transaction = null;
+    try {
+      transaction = getTransactionFactory().newTransaction(this.environment.getDataSource(), level, autoCommit);
+      return new DefaultSqlSession(this.configuration, newExecutor(transaction, execType), autoCommit);
+    } catch (RuntimeException e) {
+      closeQuietly(transaction);
+      throw ExceptionFactory.wrapException("Error opening session.  Cause: " + e, e);
+    } finally {
+      ErrorContext.instance().reset();
+    }
+  }
+
+  private SqlSession openSessionFromConnection(ExecutorType execType, Connection connection) {
+    try {
+      boolean autoCommit;
+      try {
+        autoCommit = connection.getAutoCommit();
+      } catch (SQLException e) {
+        // as DefaultSqlSessionFactory, for drivers that do not support transactions
+        autoCommit = true;
+      }
+      Transaction transaction = getTransactionFactory().newTransaction(connection);
+      return new DefaultSqlSession(this.configuration, newExecutor(transaction, execType), autoCommit);
+    } catch (RuntimeException e) {
+      throw ExceptionFactory.wrapException("Error opening session.  Cause: " + e, e);
+    } finally {
+      ErrorContext.instance().reset();
+    }
+  }
+
+  private static void closeQuietly(Transaction transaction) {
+    if (transaction != null) {
+      try {
+        transaction.close();
+      } catch (SQLException ignore) {
+        // the original exception is more relevant
+      }
+    }
+  }
+
+}
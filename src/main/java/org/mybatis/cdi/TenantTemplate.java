@@ -0,0 +1,55 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import javax.enterprise.util.Nonbinding;
+import javax.inject.Qualifier;
+
+/**
+ * Declares a {@link SessionFactoryProvider} producer as the template of the factories of the tenants. Calls made
+ * through the mappers bound to it run on a factory that shares its configuration, with the data source of the tenant
+ * returned by the {@link TenantResolver} bean. The factories of the tenants are created on first use and kept in a
+ * cache bounded by {@link #maximumSize()}, which closes those idle for {@link #idleTimeout()}.
+ */
+@Qualifier
+@Retention(RUNTIME)
+@Target({ ElementType.METHOD, ElementType.FIELD, ElementType.PARAMETER, ElementType.TYPE })
+public @interface TenantTemplate {
+
+  /**
+   * Number of tenants kept open. Defaults to {@link MybatisCdiProperties#TENANTS_MAXIMUM_SIZE}.
+   *
+   * @return the maximum number of tenants, or -1 to use the system property
+   */
+  @Nonbinding
+  int maximumSize() default -1;
+
+  /**
+   * Seconds after which a tenant that has not been used is closed. Defaults to
+   * {@link MybatisCdiProperties#TENANTS_IDLE_TIMEOUT}.
+   *
+   * @return the idle timeout in seconds, or -1 to use the system property
+   */
+  @Nonbinding
+  long idleTimeout() default -1;
+
+}
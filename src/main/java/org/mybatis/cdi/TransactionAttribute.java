@@ -0,0 +1,302 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.TransactionIsolationLevel;
+
+/**
+ * Resolved and immutable view of the {@link Transactional} attributes of a method. Attributes are resolved once per
+ * method and rollback decisions once per exception class, so the interceptor does no reflection after warm-up.
+ */
+final class TransactionAttribute {
+
+  private static final ConcurrentMap<Method, TransactionAttribute> CACHE =
+      new ConcurrentHashMap<Method, TransactionAttribute>();
+
+  private static final ConcurrentMap<Transactional, TransactionAttribute> BY_ANNOTATION =
+      new ConcurrentHashMap<Transactional, TransactionAttribute>();
+
+  private static final Class<?>[] NO_EXCEPTIONS = new Class<?>[0];
+
+  private static final Random JITTER = new Random();
+
+  private final Propagation propagation;
+
+  private final ExecutorType executorType;
+
+  private final TransactionIsolationLevel isolationLevel;
+
+  private final boolean force;
+
+  private final boolean rollbackOnly;
+
+  private final Class<?>[] rollbackFor;
+
+  private final boolean readOnly;
+
+  private final int batchSize;
+
+  private final int timeout;
+
+  private final int maxAttempts;
+
+  private final Set<String> retrySqlStates;
+
+  private final Class<?>[] retryOn;
+
+  private final long retryDelay;
+
+  private final long maxRetryDelay;
+
+  private final ConcurrentMap<Class<?>, Boolean> rollbackDecisions = new ConcurrentHashMap<Class<?>, Boolean>();
+
+  private TransactionAttribute(Transactional transactional) {
+    this.propagation = transactional.propagation();
+    this.executorType = transactional.executorType();
+    this.isolationLevel = transactional.isolation().getTransactionIsolationLevel();
+    this.force = transactional.force();
+    this.rollbackOnly = transactional.rollbackOnly();
+    this.rollbackFor = transactional.rollbackFor().clone();
+    this.readOnly = transactional.readOnly();
+    this.batchSize = this.executorType == ExecutorType.BATCH ? Math.max(transactional.batchSize(), 0) : 0;
+    this.timeout = Math.max(transactional.timeout(), 0);
+    this.maxAttempts = Math.max(transactional.maxAttempts(), 1);
+    this.retrySqlStates = new HashSet<String>(Arrays.asList(transactional.retrySqlStates()));
+    this.retryOn = transactional.retryOn().clone();
+    this.retryDelay = Math.max(transactional.retryDelay(), 0);
+    this.maxRetryDelay = Math.max(transactional.maxRetryDelay(), this.retryDelay);
+  }
+
+  /**
+   * Default attributes, used when the interceptor is bound without a visible annotation.
+   */
+  private TransactionAttribute() {
+    this.propagation = Propagation.REQUIRED;
+    this.executorType = ExecutorType.SIMPLE;
+    this.isolationLevel = Isolation.DEFAULT.getTransactionIsolationLevel();
+    this.force = false;
+    this.rollbackOnly = false;
+    this.rollbackFor = NO_EXCEPTIONS;
+    this.readOnly = false;
+    this.batchSize = 0;
+    this.timeout = 0;
+    this.maxAttempts = 1;
+    this.retrySqlStates = new HashSet<String>();
+    this.retryOn = NO_EXCEPTIONS;
+    this.retryDelay = 0;
+    this.maxRetryDelay = 0;
+  }
+
+  /**
+   * Gets the attributes of the given method. The {@link Transactional} annotation is looked up on the method, then on
+   * its declaring class. On each of them it may be present directly or through a stereotype or another annotation
+   * meta-annotated with it.
+   *
+   * @param method the intercepted method
+   * @return the resolved attributes
+   */
+  static TransactionAttribute of(Method method) {
+    TransactionAttribute attribute = CACHE.get(method);
+    if (attribute == null) {
+      Transactional transactional = findTransactional(method);
+      if (transactional == null) {
+        transactional = findTransactional(method.getDeclaringClass());
+      }
+      attribute = transactional != null ? new TransactionAttribute(transactional) : new TransactionAttribute();
+      TransactionAttribute previous = CACHE.putIfAbsent(method, attribute);
+      if (previous != null) {
+        attribute = previous;
+      }
+    }
+    return attribute;
+  }
+
+  /**
+   * Gets the attributes of the given annotation, for an interceptor that looks the annotation up by itself.
+   *
+   * @param transactional the annotation, may be null
+   * @return the resolved attributes, the default ones if there is no annotation
+   */
+  static TransactionAttribute of(Transactional transactional) {
+    if (transactional == null) {
+      return new TransactionAttribute();
+    }
+    TransactionAttribute attribute = BY_ANNOTATION.get(transactional);
+    if (attribute == null) {
+      attribute = new TransactionAttribute(transactional);
+      TransactionAttribute previous = BY_ANNOTATION.putIfAbsent(transactional, attribute);
+      if (previous != null) {
+        attribute = previous;
+      }
+    }
+    return attribute;
+  }
+
+  private static Transactional findTransactional(AnnotatedElement element) {
+    Transactional transactional = element.getAnnotation(Transactional.class);
+    if (transactional == null) {
+      transactional = findMetaTransactional(element.getAnnotations(), new HashSet<Class<?>>());
+    }
+    return transactional;
+  }
+
+  private static Transactional findMetaTransactional(Annotation[] annotations, Set<Class<?>> visited) {
+    for (Annotation annotation : annotations) {
+      Class<? extends Annotation> annotationType = annotation.annotationType();
+      if (annotationType.getName().startsWith("java.lang.annotation.") || !visited.add(annotationType)) {
+        continue;
+      }
+      Transactional transactional = annotationType.getAnnotation(Transactional.class);
+      if (transactional == null) {
+        transactional = findMetaTransactional(annotationType.getAnnotations(), visited);
+      }
+      if (transactional != null) {
+        return transactional;
+      }
+    }
+    return null;
+  }
+
+  public Propagation getPropagation() {
+    return this.propagation;
+  }
+
+  public ExecutorType getExecutorType() {
+    return this.executorType;
+  }
+
+  public TransactionIsolationLevel getIsolationLevel() {
+    return this.isolationLevel;
+  }
+
+  public boolean isForce() {
+    return this.force;
+  }
+
+  public boolean isRollbackOnly() {
+    return this.rollbackOnly;
+  }
+
+  public boolean isReadOnly() {
+    return this.readOnly;
+  }
+
+  /**
+   * Gets the number of writes after which batched statements are flushed.
+   *
+   * @return the batch size, or 0 if statements are only flushed at commit or the executor is not {@code BATCH}
+   */
+  public int getBatchSize() {
+    return this.batchSize;
+  }
+
+  /**
+   * Gets the number of seconds the transaction may run.
+   *
+   * @return the timeout, or 0 if there is none
+   */
+  public int getTimeout() {
+    return this.timeout;
+  }
+
+  /**
+   * Gets the number of times the method may be run.
+   *
+   * @return the maximum number of attempts, 1 if failures are not retried
+   */
+  public int getMaxAttempts() {
+    return this.maxAttempts;
+  }
+
+  /**
+   * Tells whether the given exception, or one of its causes, is worth running the transaction again.
+   *
+   * @param throwable the exception thrown by the transactional method
+   * @return true if it is listed in {@link Transactional#retryOn()} or has a listed SQL state
+   */
+  public boolean isRetryable(Throwable throwable) {
+    Set<Throwable> visited = new HashSet<Throwable>();
+    for (Throwable cause = throwable; cause != null && visited.add(cause); cause = cause.getCause()) {
+      for (Class<?> exceptionClass : this.retryOn) {
+        if (exceptionClass.isInstance(cause)) {
+          return true;
+        }
+      }
+      if (cause instanceof SQLException && this.retrySqlStates.contains(((SQLException) cause).getSQLState())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets how long to wait before the given retry: a random duration up to the retry delay, doubled for each previous
+   * retry and bounded by the maximum retry delay.
+   *
+   * @param retry the number of the retry, starting at 1
+   * @return the delay in milliseconds
+   */
+  public long getRetryDelay(int retry) {
+    long bound = this.retryDelay;
+    for (int i = 1; i < retry && bound < this.maxRetryDelay; i++) {
+      bound <<= 1;
+    }
+    bound = Math.min(bound, this.maxRetryDelay);
+    return bound > 0 ? (long) (JITTER.nextDouble() * (bound + 1)) : 0L;
+  }
+
+  /**
+   * Tells whether the given exception must cause a rollback: any {@code RuntimeException} or any of the types listed in
+   * {@link Transactional#rollbackFor()}.
+   *
+   * @param throwable the exception thrown by the transactional method
+   * @return true if the transaction must be rolled back
+   */
+  public boolean needsRollback(Throwable throwable) {
+    Class<?> throwableClass = throwable.getClass();
+    Boolean decision = this.rollbackDecisions.get(throwableClass);
+    if (decision == null) {
+      decision = resolveRollback(throwableClass);
+      this.rollbackDecisions.putIfAbsent(throwableClass, decision);
+    }
+    return decision;
+  }
+
+  private Boolean resolveRollback(Class<?> throwableClass) {
+    if (RuntimeException.class.isAssignableFrom(throwableClass)) {
+      return Boolean.TRUE;
+    }
+    for (Class<?> exceptionClass : this.rollbackFor) {
+      if (exceptionClass.isAssignableFrom(throwableClass)) {
+        return Boolean.TRUE;
+      }
+    }
+    return Boolean.FALSE;
+  }
+
+}
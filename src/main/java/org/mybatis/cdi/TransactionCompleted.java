@@ -0,0 +1,89 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.session.SqlSessionFactory;
+
+/**
+ * CDI event fired once a transaction started by a {@link Transactional} method has completed, whatever its outcome.
+ * Observe {@link TransactionCommitted} or {@link TransactionRolledBack} to get only one of them. The events are
+ * delivered on a separate thread unless {@link MybatisCdiProperties#EVENTS_THREADS} is 0, so observers must not rely
+ * on the request or session context of the transaction.
+ */
+public class TransactionCompleted {
+
+  private final Method method;
+
+  private final long durationNanos;
+
+  private final List<SqlSessionFactory> factories;
+
+  TransactionCompleted(Method method, long durationNanos, List<SqlSessionFactory> factories) {
+    this.method = method;
+    this.durationNanos = durationNanos;
+    this.factories = factories;
+  }
+
+  /**
+   * Gets the method that started the transaction.
+   *
+   * @return the transactional method
+   */
+  public Method getMethod() {
+    return this.method;
+  }
+
+  /**
+   * Gets the time from the start of the transaction to its completion.
+   *
+   * @param unit the unit of the result
+   * @return the duration of the transaction
+   */
+  public long getDuration(TimeUnit unit) {
+    return unit.convert(this.durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Gets the factories used in the transaction, in the order they were first used. They are the factories the
+   * application produced or registered: a factory that has been replaced stands for its replacement, and a
+   * {@link TenantTemplate} for its tenants.
+   *
+   * @return the factories, possibly none
+   */
+  public List<SqlSessionFactory> getFactories() {
+    return this.factories;
+  }
+
+  /**
+   * Tells whether the transaction was committed.
+   *
+   * @return true for a {@link TransactionCommitted} event
+   */
+  public boolean isCommitted() {
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[method=" + this.method + ", factories=" + this.factories.size()
+        + ", durationMicros=" + getDuration(TimeUnit.MICROSECONDS) + "]";
+  }
+
+}
@@ -0,0 +1,646 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.ibatis.exceptions.ExceptionFactory;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionManager;
+
+/**
+ * Thread bound state of a transaction started by the {@link LocalTransactionInterceptor}. The transaction owns one
+ * {@code SqlSession} per factory it uses, opened the first time the factory is used inside the transaction. Beginning
+ * a transaction while another one is bound to the thread suspends the latter, which keeps its sessions and is bound
+ * again when the new transaction is closed.
+ */
+final class TransactionContext {
+
+  private static final Logger LOGGER = Logger.getLogger(TransactionContext.class.getName());
+
+  private static final ThreadLocal<TransactionContext> CURRENT = new ThreadLocal<TransactionContext>();
+
+  private final TransactionAttribute attribute;
+
+  private final Method method;
+
+  private final TransactionContext suspended;
+
+  private final List<SqlSessionManager> managers = new ArrayList<SqlSessionManager>(2);
+
+  private final List<SqlSession> sessions = new ArrayList<SqlSession>(2);
+
+  private final Metrics.TransactionStats stats;
+
+  private final long start;
+
+  private final long deadline;
+
+  private long[] enlistedAt;
+
+  private boolean rolledBack;
+
+  private int[] pendingWrites;
+
+  private Map<String, Long> updateCounts;
+
+  private List<Route> routes;
+
+  private List<Pin> pins;
+
+  private RequestSessions lender;
+
+  private boolean lenderLookedUp;
+
+  private List<SqlSession> borrowed;
+
+  private final TransactionSynchronizationRegistry registry;
+
+  private List<SqlSession> synchronizedSessions;
+
+  private Set<String> writtenNamespaces;
+
+  private volatile boolean released;
+
+  private TransactionContext(TransactionAttribute attribute, Method method, Metrics.TransactionStats stats,
+      TransactionContext suspended, TransactionSynchronizationRegistry registry) {
+    this.attribute = attribute;
+    this.method = method;
+    this.registry = registry;
+    this.stats = stats;
+    this.suspended = suspended;
+    this.start = stats != null ? stats.begin() : TransactionEvents.isEnabled() ? System.nanoTime() : 0L;
+    this.deadline = attribute.getTimeout() > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(attribute.getTimeout())
+        : 0L;
+  }
+
+  /**
+   * Gets the transaction bound to the current thread.
+   *
+   * @return the current transaction or null if there is none
+   */
+  static TransactionContext current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Binds a new transaction to the current thread, suspending the current one if any.
+   *
+   * @param attribute the transaction attributes
+   * @param method the method that starts the transaction
+   * @return the new transaction
+   */
+  static TransactionContext begin(TransactionAttribute attribute, Method method) {
+    return begin(attribute, method, null);
+  }
+
+  /**
+   * Binds a new transaction to the current thread, suspending the current one if any. With a registry, the sessions
+   * are those bound to the JTA transaction by {@link JtaSessions}, which completes and closes them.
+   *
+   * @param attribute the transaction attributes
+   * @param method the method that starts the transaction
+   * @param registry the synchronization registry of the JTA transaction, or null for a local transaction
+   * @return the new transaction
+   */
+  static TransactionContext begin(TransactionAttribute attribute, Method method,
+      TransactionSynchronizationRegistry registry) {
+    TransactionContext context = new TransactionContext(attribute, method, Metrics.transaction(method),
+        CURRENT.get(), registry);
+    CURRENT.set(context);
+    return context;
+  }
+
+  /**
+   * Unbinds the current transaction from the thread without ending it.
+   *
+   * @return the suspended transaction, or null if there was none
+   */
+  static TransactionContext suspend() {
+    TransactionContext context = CURRENT.get();
+    if (context != null) {
+      CURRENT.remove();
+    }
+    return context;
+  }
+
+  /**
+   * Binds a suspended transaction to the current thread again.
+   *
+   * @param context the transaction returned by {@link #suspend()}, may be null
+   */
+  static void resume(TransactionContext context) {
+    if (context != null) {
+      CURRENT.set(context);
+    }
+  }
+
+  /**
+   * Gets the session of the transaction bound to the current thread on the given manager, opening it the first time
+   * the manager is used in the transaction.
+   *
+   * @param manager the manager about to be used
+   * @return the session, or null if there is no transaction
+   */
+  static SqlSession enlist(SqlSessionManager manager) {
+    TransactionContext context = CURRENT.get();
+    return context != null ? context.sessionOf(manager) : null;
+  }
+
+  private SqlSession sessionOf(SqlSessionManager manager) {
+    for (int i = 0; i < this.managers.size(); i++) {
+      if (this.managers.get(i) == manager) {
+        return this.sessions.get(i);
+      }
+    }
+    SqlSession session = synchronizeSession(manager);
+    if (session == null) {
+      session = borrowSession(manager);
+    }
+    if (session == null) {
+      session = openSession(manager);
+    }
+    this.managers.add(manager);
+    this.sessions.add(session);
+    // held by the caller until now, or a replica, which is never retired
+    InFlightManagers.retain(manager);
+    if (Metrics.ENABLED) {
+      markEnlisted(manager);
+    }
+    if (this.attribute.isReadOnly() && !isSynchronized(session)) {
+      try {
+        session.getConnection().setReadOnly(true);
+      } catch (SQLException e) {
+        throw ExceptionFactory.wrapException("Error setting the connection read-only.", e);
+      }
+    }
+    return session;
+  }
+
+  private SqlSession synchronizeSession(SqlSessionManager manager) {
+    if (this.registry == null) {
+      return null;
+    }
+    SqlSession session = JtaSessions.enlist(this.registry, manager, this.attribute.getExecutorType(),
+        this.attribute.getIsolationLevel(), this.attribute.getTimeout(), this.deadline);
+    if (session != null) {
+      if (this.synchronizedSessions == null) {
+        this.synchronizedSessions = new ArrayList<SqlSession>(1);
+      }
+      this.synchronizedSessions.add(session);
+    }
+    return session;
+  }
+
+  private boolean isSynchronized(SqlSession session) {
+    return this.synchronizedSessions != null && this.synchronizedSessions.contains(session);
+  }
+
+  private SqlSession borrowSession(SqlSessionManager manager) {
+    if (!RequestSessions.ENABLED) {
+      return null;
+    }
+    if (!this.lenderLookedUp) {
+      this.lender = RequestSessions.current();
+      this.lenderLookedUp = true;
+    }
+    SqlSession session = this.lender != null ? this.lender.lend(manager, this.attribute) : null;
+    if (session != null) {
+      if (this.borrowed == null) {
+        this.borrowed = new ArrayList<SqlSession>(1);
+      }
+      this.borrowed.add(session);
+    }
+    return session;
+  }
+
+  private boolean isBorrowed(SqlSession session) {
+    return this.borrowed != null && this.borrowed.contains(session);
+  }
+
+  private SqlSession openSession(SqlSessionManager manager) {
+    if (this.attribute.getTimeout() == 0) {
+      return manager.openSession(this.attribute.getExecutorType(), this.attribute.getIsolationLevel());
+    }
+    return DeadlineTransactionFactory.openSession(manager, this.attribute.getExecutorType(),
+        this.attribute.getIsolationLevel(), this.deadline);
+  }
+
+  /**
+   * Tells whether the timeout of this transaction, if any, has expired.
+   *
+   * @return true if the transaction must be rolled back because it ran out of time
+   */
+  boolean isTimedOut() {
+    return this.attribute.getTimeout() > 0 && DeadlineTransaction.secondsLeft(this.deadline) == 0;
+  }
+
+  /**
+   * Tells whether the given manager has been used in this transaction.
+   *
+   * @param manager the manager
+   * @return true if this transaction has a session on it
+   */
+  boolean isEnlisted(SqlSessionManager manager) {
+    return this.managers.contains(manager);
+  }
+
+  /**
+   * Selects the factory a call must be made on: the given one, or one of its replicas in a read-only transaction.
+   *
+   * @param manager the manager of the factory the caller is bound to
+   * @param replicas the replicas of that factory, may be null
+   * @return the manager to use
+   */
+  static SqlSessionManager route(SqlSessionManager manager, ReplicaSet replicas) {
+    if (replicas == null) {
+      return manager;
+    }
+    TransactionContext context = CURRENT.get();
+    if (context == null || !context.attribute.isReadOnly()) {
+      return manager;
+    }
+    if (context.routes == null) {
+      context.routes = new ArrayList<Route>(1);
+    }
+    for (Route route : context.routes) {
+      if (route.primary == manager) {
+        return route.replicas.get(route.index);
+      }
+    }
+    Route route = new Route(manager, replicas);
+    context.routes.add(route);
+    return replicas.get(route.index);
+  }
+
+  /**
+   * Gets the manager the calls bound to the given manager already run on in the current transaction, which keeps using
+   * it even if its factory has been replaced or its tenant evicted since. The transaction holds it until it ends.
+   *
+   * @param bound the manager the caller is bound to
+   * @param tenant the tenant of the call, may be null
+   * @return the manager, or null if there is no transaction or no call bound to that manager enlisted in it
+   */
+  static SqlSessionManager pinned(SqlSessionManager bound, String tenant) {
+    TransactionContext context = CURRENT.get();
+    if (context == null || context.pins == null) {
+      return null;
+    }
+    for (Pin pin : context.pins) {
+      if (pin.bound == bound && (tenant == null ? pin.tenant == null : tenant.equals(pin.tenant))) {
+        return pin.manager;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Makes the calls bound to the given manager run on the given one until the current transaction ends. Called once
+   * that manager is enlisted in the transaction.
+   *
+   * @param bound the manager the caller is bound to
+   * @param tenant the tenant of the call, may be null
+   * @param manager the manager the call was resolved to
+   */
+  static void pin(SqlSessionManager bound, String tenant, SqlSessionManager manager) {
+    TransactionContext context = CURRENT.get();
+    if (context == null || pinned(bound, tenant) != null) {
+      return;
+    }
+    if (context.pins == null) {
+      context.pins = new ArrayList<Pin>(1);
+    }
+    context.pins.add(new Pin(bound, tenant, manager));
+  }
+
+  /**
+   * Gets the transaction bound to the current thread if it flushes batched statements automatically.
+   *
+   * @return the current transaction or null if there is none or it has no batch size
+   */
+  static TransactionContext currentBatch() {
+    TransactionContext context = CURRENT.get();
+    return context != null && context.attribute.getBatchSize() > 0 ? context : null;
+  }
+
+  /**
+   * Counts a write made on the given manager and flushes its statements if the batch size is reached.
+   *
+   * @param manager the manager the write was made on
+   */
+  void countWrite(SqlSessionManager manager) {
+    int index = this.managers.indexOf(manager);
+    if (index < 0) {
+      // the write was not made in this transaction
+      return;
+    }
+    if (this.pendingWrites == null || index >= this.pendingWrites.length) {
+      this.pendingWrites = this.pendingWrites == null ? new int[this.managers.size()]
+          : Arrays.copyOf(this.pendingWrites, this.managers.size());
+    }
+    if (++this.pendingWrites[index] >= this.attribute.getBatchSize()) {
+      this.pendingWrites[index] = 0;
+      addUpdateCounts(this.sessions.get(index).flushStatements());
+    }
+  }
+
+  /**
+   * Flushes the statements queued on every enlisted factory.
+   */
+  void flush() {
+    for (SqlSession session : this.sessions) {
+      addUpdateCounts(session.flushStatements());
+    }
+    if (this.pendingWrites != null) {
+      Arrays.fill(this.pendingWrites, 0);
+    }
+  }
+
+  /**
+   * Gets the number of rows updated by each statement flushed so far, keyed by statement id.
+   *
+   * @return the update counts
+   */
+  Map<String, Long> getUpdateCounts() {
+    if (this.updateCounts == null) {
+      return Collections.emptyMap();
+    }
+    return Collections.unmodifiableMap(new LinkedHashMap<String, Long>(this.updateCounts));
+  }
+
+  private void addUpdateCounts(List<BatchResult> results) {
+    if (this.updateCounts == null) {
+      this.updateCounts = new LinkedHashMap<String, Long>();
+    }
+    for (BatchResult result : results) {
+      long rows = 0;
+      for (int count : result.getUpdateCounts()) {
+        if (count > 0) {
+          rows += count;
+        }
+      }
+      String statement = result.getMappedStatement().getId();
+      Long previous = this.updateCounts.get(statement);
+      this.updateCounts.put(statement, previous == null ? rows : previous + rows);
+    }
+  }
+
+  /**
+   * Gets the method that started this transaction.
+   *
+   * @return the transactional method
+   */
+  Method getMethod() {
+    return this.method;
+  }
+
+  /**
+   * Gets when this transaction started, if it is timed.
+   *
+   * @return the start in nanoseconds, or 0 if neither metrics nor events are enabled
+   */
+  long getStart() {
+    return this.start;
+  }
+
+  /**
+   * Gets the managers used in this transaction, in the order they were enlisted.
+   *
+   * @return the managers
+   */
+  List<SqlSessionManager> getManagers() {
+    return this.managers;
+  }
+
+  /**
+   * Takes note of a write to a namespace whose method results are cached, to invalidate them once committed.
+   *
+   * @param namespace the namespace of the statement
+   */
+  void recordWrite(String namespace) {
+    if (this.writtenNamespaces == null) {
+      this.writtenNamespaces = new HashSet<String>(4);
+    }
+    this.writtenNamespaces.add(namespace);
+  }
+
+  /**
+   * Tells whether this transaction wrote to one of the given namespaces.
+   *
+   * @param namespaces the namespaces
+   * @return true if one of them was written to
+   */
+  boolean hasWritten(String[] namespaces) {
+    if (this.writtenNamespaces != null) {
+      for (String namespace : namespaces) {
+        if (this.writtenNamespaces.contains(namespace)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets the namespaces with cached results this transaction wrote to.
+   *
+   * @return the namespaces, possibly empty
+   */
+  Set<String> getWrittenNamespaces() {
+    return this.writtenNamespaces != null ? this.writtenNamespaces : Collections.<String> emptySet();
+  }
+
+  private void markEnlisted(SqlSessionManager manager) {
+    int index = this.managers.size() - 1;
+    if (this.enlistedAt == null) {
+      this.enlistedAt = new long[2];
+    } else if (index == this.enlistedAt.length) {
+      this.enlistedAt = Arrays.copyOf(this.enlistedAt, index * 2);
+    }
+    this.enlistedAt[index] = Metrics.factory(manager).begin();
+  }
+
+  void commit() {
+    if (this.attribute.isReadOnly()) {
+      // nothing to commit, but borrowed sessions must not carry the transaction over
+      if (this.borrowed != null) {
+        for (SqlSession session : this.borrowed) {
+          session.rollback(true);
+        }
+      }
+      return;
+    }
+    for (SqlSession session : this.sessions) {
+      if (!isSynchronized(session)) {
+        session.commit(this.attribute.isForce() || isBorrowed(session));
+      }
+    }
+  }
+
+  void rollback() {
+    this.rolledBack = true;
+    for (SqlSession session : this.sessions) {
+      if (!isSynchronized(session)) {
+        session.rollback(this.attribute.isForce() || isBorrowed(session));
+      }
+    }
+  }
+
+  /**
+   * Closes the sessions of this transaction, unbinds it from the current thread and resumes the transaction it
+   * suspended, if any.
+   */
+  void close() {
+    try {
+      release();
+    } finally {
+      unbind();
+    }
+  }
+
+  /**
+   * Unbinds this transaction from the current thread and resumes the transaction it suspended, if any, leaving its
+   * sessions open. The transaction must be completed and {@link #release() released} later on, by the
+   * {@link TransactionalCursor} it was handed to.
+   */
+  void unbind() {
+    if (this.suspended != null) {
+      CURRENT.set(this.suspended);
+    } else {
+      CURRENT.remove();
+    }
+  }
+
+  /**
+   * Tells whether this transaction has ended and closed its sessions.
+   *
+   * @return true once {@link #release()} has been called
+   */
+  boolean isReleased() {
+    return this.released;
+  }
+
+  /**
+   * Closes the sessions of this transaction. A session that fails to close does not keep the others open: the first
+   * failure is thrown once all of them have been closed, and the next ones are logged.
+   */
+  void release() {
+    this.released = true;
+    try {
+      RuntimeException failure = null;
+      for (SqlSession session : this.sessions) {
+        if (isSynchronized(session)) {
+          // closed once the JTA transaction completes
+          continue;
+        }
+        try {
+          if (this.attribute.isReadOnly()) {
+            resetReadOnly(session);
+          }
+          if (isBorrowed(session)) {
+            this.lender.giveBack(session);
+          } else {
+            session.close();
+          }
+        } catch (RuntimeException e) {
+          if (failure == null) {
+            failure = e;
+          } else {
+            LOGGER.log(Level.WARNING, "MyBatis CDI Module - Could not close a session", e);
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    } finally {
+      if (this.routes != null) {
+        for (Route route : this.routes) {
+          route.replicas.release(route.index);
+        }
+      }
+      for (int i = 0; i < this.managers.size(); i++) {
+        InFlightManagers.release(this.managers.get(i));
+      }
+      if (this.stats != null) {
+        record();
+      }
+    }
+  }
+
+  private static void resetReadOnly(SqlSession session) {
+    try {
+      session.getConnection().setReadOnly(false);
+    } catch (SQLException e) {
+      LOGGER.log(Level.FINE, "MyBatis CDI Module - Could not reset a read-only connection", e);
+    }
+  }
+
+  private void record() {
+    for (int i = 0; i < this.managers.size(); i++) {
+      Metrics.factory(this.managers.get(i)).end(this.enlistedAt[i], this.rolledBack);
+    }
+    this.stats.end(this.start, this.rolledBack);
+  }
+
+  private static final class Pin {
+
+    private final SqlSessionManager bound;
+
+    private final String tenant;
+
+    private final SqlSessionManager manager;
+
+    Pin(SqlSessionManager bound, String tenant, SqlSessionManager manager) {
+      this.bound = bound;
+      this.tenant = tenant;
+      this.manager = manager;
+    }
+
+  }
+
+  private static final class Route {
+
+    private final SqlSessionManager primary;
+
+    private final ReplicaSet replicas;
+
+    private final int index;
+
+    Route(SqlSessionManager primary, ReplicaSet replicas) {
+      this.primary = primary;
+      this.replicas = replicas;
+      this.index = replicas.acquire();
+    }
+
+  }
+
+}
@@ -0,0 +1,178 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.enterprise.inject.spi.BeanManager;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionManager;
+
+/**
+ * Fires the {@link TransactionCompleted} events. Nothing is fired, nor timed, unless the application observes them.
+ * They are delivered by a bounded executor of {@link MybatisCdiProperties#EVENTS_THREADS} threads, queuing up to
+ * {@link MybatisCdiProperties#EVENTS_QUEUE_SIZE} events; when the queue is full the completing thread delivers the
+ * event itself rather than dropping it.
+ */
+final class TransactionEvents {
+
+  private static final Logger LOGGER = Logger.getLogger(TransactionEvents.class.getName());
+
+  private static volatile BeanManager beanManager;
+
+  private static volatile SqlSessionManagerRegistry registry;
+
+  private static volatile ExecutorService executor;
+
+  private TransactionEvents() {
+    // this class cannot be instantiated
+  }
+
+  /**
+   * Enables the events if there is any observer for them. Called once the deployment is validated.
+   *
+   * @param bm the bean manager
+   */
+  static void init(BeanManager bm) {
+    List<SqlSessionFactory> none = Collections.emptyList();
+    if (bm.resolveObserverMethods(new TransactionCommitted(null, 0L, none)).isEmpty()
+        && bm.resolveObserverMethods(new TransactionRolledBack(null, 0L, none)).isEmpty()) {
+      return;
+    }
+    int threads = MybatisCdiProperties.getEventsThreads();
+    if (threads > 0) {
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>(Math.max(MybatisCdiProperties.getEventsQueueSize(), 1)),
+          new MapperExecutors.AsyncThreadFactory("mybatis-cdi-events-"), new ThreadPoolExecutor.CallerRunsPolicy());
+      pool.allowCoreThreadTimeOut(true);
+      executor = pool;
+    }
+    if (!bm.getBeans(SqlSessionManagerRegistry.class).isEmpty()) {
+      registry = CDIUtils.getRegistry(bm, bm.createCreationalContext(null));
+    }
+    beanManager = bm;
+  }
+
+  /**
+   * Tells whether transactions must be timed and their completion fired.
+   *
+   * @return true if there are observers
+   */
+  static boolean isEnabled() {
+    return beanManager != null;
+  }
+
+  /**
+   * Fires the completion of a transaction, once the JTA transaction completes if a registry is given.
+   *
+   * @param context the completed transaction
+   * @param committed whether it was committed, ignored when the outcome is left to the registry
+   * @param registry the registry of the JTA transaction still to be completed, or null
+   */
+  static void fire(TransactionContext context, boolean committed, TransactionSynchronizationRegistry registry) {
+    final Method method = context.getMethod();
+    final long start = context.getStart();
+    final List<SqlSessionFactory> factories = factoriesOf(context.getManagers());
+    if (registry == null) {
+      fire(method, start, factories, committed);
+      return;
+    }
+    registry.registerInterposedSynchronization(new Synchronization() {
+      @Override
+      public void beforeCompletion() {
+        // nothing to do
+      }
+
+      @Override
+      public void afterCompletion(int status) {
+        fire(method, start, factories, status == Status.STATUS_COMMITTED);
+      }
+    });
+  }
+
+  /**
+   * Maps the managers used by a transaction to the factories the application registered: the replicas to their own
+   * factories, the replacements to the factories they replaced and the tenants to their template.
+   */
+  private static List<SqlSessionFactory> factoriesOf(List<SqlSessionManager> managers) {
+    SqlSessionManagerRegistry current = registry;
+    List<SqlSessionFactory> factories = new ArrayList<SqlSessionFactory>(managers.size());
+    for (SqlSessionManager manager : managers) {
+      SqlSessionFactory factory = current != null ? current.getFactory(manager) : null;
+      if (factory == null) {
+        factory = manager;
+      }
+      if (!factories.contains(factory)) {
+        factories.add(factory);
+      }
+    }
+    return factories;
+  }
+
+  private static void fire(Method method, long start, List<SqlSessionFactory> factories, boolean committed) {
+    final BeanManager bm = beanManager;
+    if (bm == null) {
+      return;
+    }
+    long duration = System.nanoTime() - start;
+    List<SqlSessionFactory> touched = Collections.unmodifiableList(factories);
+    final TransactionCompleted event = committed ? new TransactionCommitted(method, duration, touched)
+        : new TransactionRolledBack(method, duration, touched);
+    Runnable delivery = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          bm.fireEvent(event);
+        } catch (RuntimeException e) {
+          LOGGER.log(Level.WARNING, "MyBatis CDI Module - An observer of " + event + " failed", e);
+        }
+      }
+    };
+    ExecutorService events = executor;
+    if (events == null) {
+      delivery.run();
+    } else {
+      events.execute(delivery);
+    }
+  }
+
+  /**
+   * Stops delivering events, letting those already queued be delivered. Called when the container shuts down.
+   */
+  static void shutdown() {
+    beanManager = null;
+    registry = null;
+    ExecutorService events = executor;
+    executor = null;
+    if (events != null) {
+      events.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,32 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.apache.ibatis.session.SqlSessionFactory;
+
+/**
+ * CDI event fired once a transaction started by a {@link Transactional} method has been rolled back.
+ */
+public class TransactionRolledBack extends TransactionCompleted {
+
+  TransactionRolledBack(Method method, long durationNanos, List<SqlSessionFactory> factories) {
+    super(method, durationNanos, factories);
+  }
+
+}
@@ -0,0 +1,44 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+/**
+ * Transactions started by a {@code @Transactional} method, or run on a {@code SqlSessionFactory}. For a factory, the
+ * latency is measured from the moment the factory is enlisted in the transaction to its commit or rollback.
+ */
+public interface TransactionStatsMXBean extends LatencyStatsMXBean {
+
+  long getBegun();
+
+  long getCommitted();
+
+  long getRolledBack();
+
+  /**
+   * Gets the number of transactions run again after a retryable failure. Always 0 for a factory.
+   *
+   * @return the number of retries
+   */
+  long getRetried();
+
+  /**
+   * Gets the number of transactions begun and not ended yet.
+   *
+   * @return the number of active transactions
+   */
+  long getActive();
+
+}
@@ -43,6 +43,14 @@ public @interface Transactional {
   @Nonbinding
   ExecutorType executorType() default ExecutorType.SIMPLE;
 
+  /**
+   * Returns how the method behaves when it is called with or without a current transaction.
+   *
+   * @return Propagation.REQUIRED by default, user defined otherwise.
+   */
+  @Nonbinding
+  Propagation propagation() default Propagation.REQUIRED;
+
   /**
    * Returns the constant indicating the transaction isolation level.
    *
@@ -76,4 +84,76 @@ public @interface Transactional {
   @Nonbinding
   Class<? extends Throwable>[] rollbackFor() default {};
 
+  /**
+   * Marks the transaction as read-only: connections are set read-only, nothing is committed and mapper calls are
+   * routed to a {@link ReadReplica} of their factory when there is one.
+   *
+   * @return false by default, user defined otherwise.
+   */
+  @Nonbinding
+  boolean readOnly() default false;
+
+  /**
+   * With the {@code BATCH} executor, number of insert, update or delete statements after which the statements queued on
+   * a factory are flushed, so that bulk loads do not build an unbounded JDBC batch. Ignored by the other executors. The
+   * outcome of the flushes is available through {@link TransactionalBatch}.
+   *
+   * @return 0 by default, which flushes only at commit, user defined otherwise.
+   */
+  @Nonbinding
+  int batchSize() default 0;
+
+  /**
+   * Number of seconds the transaction may run. The statements it executes get the remaining time as query timeout, and
+   * it is rolled back once the time is over. JTA transactions started by the interceptor get it as transaction timeout.
+   *
+   * @return 0 by default, which means no timeout, user defined otherwise.
+   */
+  @Nonbinding
+  int timeout() default 0;
+
+  /**
+   * Maximum number of times the method is run when its transaction fails with a retryable exception, one listed in
+   * {@link #retryOn()} or an {@code SQLException} whose SQL state is listed in {@link #retrySqlStates()}, anywhere in
+   * the causes of the exception thrown. Only transactions started and rolled back by the method are run again, never
+   * one it joined.
+   *
+   * @return 1 by default, which means no retry, user defined otherwise.
+   */
+  @Nonbinding
+  int maxAttempts() default 1;
+
+  /**
+   * SQL states of the failures worth running the transaction again, checked when {@link #maxAttempts()} is above 1.
+   *
+   * @return serialization failure (40001) and deadlock (40P01) by default, user defined otherwise.
+   */
+  @Nonbinding
+  String[] retrySqlStates() default { "40001", "40P01" };
+
+  /**
+   * Exception classes worth running the transaction again, checked when {@link #maxAttempts()} is above 1.
+   *
+   * @return an empty array by default, user defined otherwise.
+   */
+  @Nonbinding
+  Class<? extends Throwable>[] retryOn() default {};
+
+  /**
+   * Milliseconds to wait before the first retry, doubled at each following one up to {@link #maxRetryDelay()}. The
+   * actual wait is a random fraction of it, so that conflicting transactions do not retry in lock step.
+   *
+   * @return 50 by default, user defined otherwise.
+   */
+  @Nonbinding
+  long retryDelay() default 50;
+
+  /**
+   * Upper bound, in milliseconds, of the wait between two attempts.
+   *
+   * @return 1000 by default, user defined otherwise.
+   */
+  @Nonbinding
+  long maxRetryDelay() default 1000;
+
 }
@@ -0,0 +1,60 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Outcome of the batched statements of the current transaction, when it was started with
+ * {@code @Transactional(executorType = ExecutorType.BATCH, batchSize = n)}. The statements are flushed every {@code n}
+ * writes and the number of rows updated by each of them, as reported by the driver, is added up per statement id.
+ * <p>
+ * Statements still queued are flushed at commit. Call {@link #flush()} before returning from the transactional method
+ * to include them in the counts.
+ */
+public final class TransactionalBatch {
+
+  private TransactionalBatch() {
+    // this class cannot be instantiated
+  }
+
+  /**
+   * Gets the number of rows updated by each statement flushed so far in the current transaction.
+   *
+   * @return the update counts keyed by statement id, empty if there is no transaction
+   */
+  public static Map<String, Long> getUpdateCounts() {
+    TransactionContext context = TransactionContext.current();
+    return context != null ? context.getUpdateCounts() : Collections.<String, Long> emptyMap();
+  }
+
+  /**
+   * Flushes the statements queued in the current transaction on every factory it uses.
+   *
+   * @return the update counts of all the statements flushed in the transaction, keyed by statement id, empty if there
+   *         is no transaction
+   */
+  public static Map<String, Long> flush() {
+    TransactionContext context = TransactionContext.current();
+    if (context == null) {
+      return Collections.emptyMap();
+    }
+    context.flush();
+    return context.getUpdateCounts();
+  }
+
+}
@@ -0,0 +1,140 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.ibatis.cursor.Cursor;
+
+/**
+ * Cursor returned by a {@link Transactional} method in place of the one it returned, so that the transaction outlives
+ * the method. The sessions of the transaction, and their connections, stay open while the cursor is read; the
+ * transaction is committed, or rolled back if it is rollback only or the cursor failed, once the cursor is fully
+ * consumed or closed. Callers must therefore close it when they stop reading early.
+ *
+ * @param <T> the type of the items
+ */
+final class TransactionalCursor<T> implements Cursor<T> {
+
+  private final Cursor<T> delegate;
+
+  private final TransactionContext context;
+
+  private boolean needsRollback;
+
+  private boolean completed;
+
+  TransactionalCursor(Cursor<T> delegate, TransactionContext context, boolean needsRollback) {
+    this.delegate = delegate;
+    this.context = context;
+    this.needsRollback = needsRollback;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return this.delegate.isOpen();
+  }
+
+  @Override
+  public boolean isConsumed() {
+    return this.delegate.isConsumed();
+  }
+
+  @Override
+  public int getCurrentIndex() {
+    return this.delegate.getCurrentIndex();
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    final Iterator<T> iterator = this.delegate.iterator();
+    return new Iterator<T>() {
+
+      @Override
+      public boolean hasNext() {
+        try {
+          boolean hasNext = iterator.hasNext();
+          if (!hasNext) {
+            complete();
+          }
+          return hasNext;
+        } catch (RuntimeException e) {
+          fail();
+          throw e;
+        }
+      }
+
+      @Override
+      public T next() {
+        try {
+          return iterator.next();
+        } catch (RuntimeException e) {
+          fail();
+          throw e;
+        }
+      }
+
+      @Override
+      public void remove() {
+        iterator.remove();
+      }
+
+    };
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      this.delegate.close();
+    } finally {
+      complete();
+    }
+  }
+
+  private void fail() {
+    this.needsRollback = true;
+    complete();
+  }
+
+  private void complete() {
+    if (this.completed) {
+      return;
+    }
+    this.completed = true;
+    boolean committed = false;
+    try {
+      try {
+        if (this.needsRollback) {
+          this.context.rollback();
+        } else {
+          this.context.commit();
+        }
+      } finally {
+        this.context.release();
+      }
+      committed = !this.needsRollback;
+    } finally {
+      if (committed) {
+        ResultCaches.invalidate(this.context.getWrittenNamespaces(), null);
+      }
+      if (TransactionEvents.isEnabled()) {
+        TransactionEvents.fire(this.context, committed, null);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,130 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.spi.CreationalContext;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionManager;
+
+/**
+ * Optional warm-up run by the extension once the deployment has been validated, so that the first requests do not pay
+ * for the lazy work done by MyBatis: binding mapper methods to their statements, opening connections and preparing the
+ * first statements. Failures are logged and never abort the deployment.
+ *
+ * @see MybatisCdiProperties#WARM_UP
+ */
+final class WarmUp {
+
+  private static final Logger LOGGER = Logger.getLogger(WarmUp.class.getName());
+
+  private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+  private WarmUp() {
+    // this class cannot be instantiated
+  }
+
+  static void run(Collection<MyBatisBean> beans, SqlSessionManagerRegistry registry,
+      CreationalContext<?> creationalContext) {
+    long start = System.nanoTime();
+    int methods = 0;
+    for (MyBatisBean bean : beans) {
+      if (!SqlSession.class.equals(bean.type)) {
+        methods += resolveMapperMethods(bean, creationalContext);
+      }
+    }
+    int connections = MybatisCdiProperties.getWarmUpConnections();
+    List<String> statements = MybatisCdiProperties.getWarmUpStatements();
+    for (SqlSessionManager manager : registry.getManagers()) {
+      openConnections(manager, connections);
+      runStatements(manager, statements);
+    }
+    LOGGER.log(Level.INFO, "MyBatis CDI Module - Warm-up done in {0} ms, {1} mapper methods resolved",
+        new Object[] { TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), methods });
+  }
+
+  private static int resolveMapperMethods(MyBatisBean bean, CreationalContext<?> creationalContext) {
+    int resolved = 0;
+    try {
+      SqlSessionManager manager = bean.getManager(creationalContext);
+      for (Method method : bean.type.getMethods()) {
+        if (Modifier.isAbstract(method.getModifiers())) {
+          try {
+            if (AsyncMapperMethod.isAsync(method)) {
+              bean.getAsyncMapperMethod(method, manager.getConfiguration());
+            } else {
+              bean.getMapperMethod(method, manager.getConfiguration());
+            }
+            resolved++;
+          } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING,
+                "MyBatis CDI Module - Warm-up could not resolve " + bean.type.getName() + "." + method.getName(), e);
+          }
+        }
+      }
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "MyBatis CDI Module - Warm-up could not bind " + bean.getId(), e);
+    }
+    return resolved;
+  }
+
+  private static void openConnections(SqlSessionManager manager, int count) {
+    List<SqlSession> sessions = new ArrayList<SqlSession>(count);
+    try {
+      for (int i = 0; i < count; i++) {
+        SqlSession session = manager.openSession();
+        sessions.add(session);
+        Connection connection = session.getConnection();
+        if (!connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+          LOGGER.log(Level.WARNING, "MyBatis CDI Module - Warm-up opened an invalid connection on {0}",
+              manager.getConfiguration().getEnvironment().getId());
+        }
+      }
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING, "MyBatis CDI Module - Warm-up could not validate a connection", e);
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "MyBatis CDI Module - Warm-up could not open a connection", e);
+    } finally {
+      for (SqlSession session : sessions) {
+        session.close();
+      }
+    }
+  }
+
+  private static void runStatements(SqlSessionManager manager, List<String> statements) {
+    for (String statement : statements) {
+      if (manager.getConfiguration().hasStatement(statement)) {
+        try {
+          manager.selectList(statement);
+        } catch (RuntimeException e) {
+          LOGGER.log(Level.WARNING, "MyBatis CDI Module - Warm-up statement " + statement + " failed", e);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,117 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import org.apache.ibatis.annotations.MapKey;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import org.apache.ibatis.binding.BindingException;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncMapperMethodTest {
+
+  interface CountryMapper {
+
+    @Select("select name from countries")
+    Future<Set<String>> getNames();
+
+    @Select("select name from countries")
+    Future<String[]> getNamesAsArray();
+
+    @Select("select id, name from countries")
+    @MapKey("id")
+    Future<Map<Integer, String>> getNamesById();
+
+    @Select("select name from countries")
+    Future<Set<String>> getNamePage(RowBounds rowBounds);
+
+    @Update("update countries set name = #{name} where id = #{id}")
+    Future<Boolean> rename(Country country);
+
+    @Update("update countries set name = null")
+    Future<String> clearNames();
+
+  }
+
+  public static class Country {
+
+    private Integer id;
+
+    private String name;
+
+    public Integer getId() {
+      return this.id;
+    }
+
+    public void setId(Integer id) {
+      this.id = id;
+    }
+
+    public String getName() {
+      return this.name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+  }
+
+  private Configuration configuration;
+
+  @Before
+  public void setUp() {
+    this.configuration = new Configuration();
+    this.configuration.addMapper(CountryMapper.class);
+  }
+
+  @Test
+  public void shouldBindSupportedSignatures() throws Exception {
+    bind("getNames");
+    bind("rename", Country.class);
+  }
+
+  @Test
+  public void shouldRejectUnsupportedSignatures() throws Exception {
+    assertRejected("getNamesAsArray");
+    assertRejected("getNamesById");
+    assertRejected("getNamePage", RowBounds.class);
+    assertRejected("clearNames");
+  }
+
+  private AsyncMapperMethod bind(String name, Class<?>... parameterTypes) throws Exception {
+    return new AsyncMapperMethod(CountryMapper.class, CountryMapper.class.getMethod(name, parameterTypes),
+        this.configuration);
+  }
+
+  private void assertRejected(String name, Class<?>... parameterTypes) throws Exception {
+    try {
+      bind(name, parameterTypes);
+      Assert.fail(name + " should not be bound");
+    } catch (BindingException e) {
+      // expected
+    }
+  }
+
+}
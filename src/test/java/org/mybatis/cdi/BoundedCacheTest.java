@@ -0,0 +1,88 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+  @Test
+  public void shouldKeepTheFrequentlyReadEntriesWithinTheMaximumWeight() {
+    BoundedCache cache = new BoundedCache("bounded", 100);
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, i);
+      cache.getObject(0);
+    }
+    Assert.assertEquals(100, cache.getSize());
+    Assert.assertEquals(900, cache.getEvictions());
+    Assert.assertEquals(0, cache.getObject(0));
+  }
+
+  @Test
+  public void shouldCountHitsAndMisses() {
+    BoundedCache cache = new BoundedCache("stats", 10);
+    cache.putObject("key", "value");
+    Assert.assertEquals("value", cache.getObject("key"));
+    Assert.assertNull(cache.getObject("other"));
+    Assert.assertEquals(1, cache.getHits());
+    Assert.assertEquals(1, cache.getMisses());
+    Assert.assertEquals(0.5, cache.getHitRatio(), 0.0);
+    cache.reset();
+    Assert.assertEquals(0, cache.getHits());
+  }
+
+  @Test
+  public void shouldBoundTheCacheByTheWeightOfItsEntries() {
+    BoundedCache cache = new BoundedCache("weighed", 10) {
+      @Override
+      protected int weigh(Object key, Object value) {
+        return ((String) value).length();
+      }
+    };
+    cache.putObject(1, "12345");
+    cache.putObject(2, "1234567890a");
+    Assert.assertNull(cache.getObject(2));
+    cache.putObject(3, "123456");
+    Assert.assertTrue(cache.getWeight() <= 10);
+    Assert.assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldExpireEntriesAfterTheirTimeToLive() throws Exception {
+    BoundedCache cache = new BoundedCache("expiring", 10, 1, TimeUnit.MILLISECONDS);
+    cache.putObject("key", "value");
+    Thread.sleep(20);
+    Assert.assertNull(cache.getObject("key"));
+    Assert.assertEquals(1, cache.getExpirations());
+    Assert.assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldRemoveAndClearEntries() {
+    BoundedCache cache = new BoundedCache("cleared", 10);
+    cache.putObject(1, "one");
+    cache.putObject(2, "two");
+    Assert.assertEquals("one", cache.removeObject(1));
+    Assert.assertEquals(1, cache.getSize());
+    cache.clear();
+    Assert.assertEquals(0, cache.getSize());
+    Assert.assertEquals(0, cache.getWeight());
+  }
+
+}
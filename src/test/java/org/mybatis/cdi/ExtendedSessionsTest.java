@@ -0,0 +1,59 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.sql.Connection;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.jboss.weld.context.bound.Bound;
+import org.jboss.weld.context.bound.BoundRequestContext;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WeldJUnit4Runner.class)
+public class ExtendedSessionsTest {
+
+  @Inject
+  private FooService fooService;
+
+  @Inject
+  @Bound
+  private BoundRequestContext requestContext;
+
+  @Test
+  public void shouldShareTheSessionsOfARequestAmongItsTransactions() throws Exception {
+    Assert.assertNotSame(this.fooService.getConnectionOfTransaction(), this.fooService.getConnectionOfTransaction());
+    Map<String, Object> storage = new HashMap<String, Object>();
+    this.requestContext.associate(storage);
+    this.requestContext.activate();
+    Connection connection;
+    try {
+      connection = this.fooService.getConnectionOfTransaction();
+      Assert.assertSame(connection, this.fooService.getConnectionOfTransaction());
+      Assert.assertFalse(connection.isClosed());
+    } finally {
+      this.requestContext.invalidate();
+      this.requestContext.deactivate();
+      this.requestContext.dissociate(storage);
+    }
+    Assert.assertTrue(connection.isClosed());
+  }
+
+}
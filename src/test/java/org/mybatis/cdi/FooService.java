@@ -15,11 +15,23 @@
  */
 package org.mybatis.cdi;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.interceptor.Interceptors;
 
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
 
 @Interceptors(LocalTransactionInterceptor.class)
 @Transactional(rollbackFor = RollbackException.class)
@@ -50,6 +62,36 @@ public class FooService {
   @Named("unmanaged")
   private SqlSession unmanagedSqlSession;
 
+  @Inject
+  @Named("manager1")
+  private SharedUserMapper sharedUserMapper;
+
+  @Inject
+  @Named("manager1")
+  private SharedUserMapper otherSharedUserMapper;
+
+  @Inject
+  @Named("manager1")
+  private SqlSessionFactory factory1;
+
+  @Inject
+  private Instance<FooService> fooServices;
+
+  @Inject
+  @Named("manager2")
+  private SqlSessionFactory factory2;
+
+  @Inject
+  private SqlSessionManagerRegistry registry;
+
+  @Inject
+  @Named("tenants")
+  private UserMapper tenantUserMapper;
+
+  @Inject
+  @Named("manager8")
+  private UserMapper userMapper8;
+
   public User getUserFromSqlSession(int userId) {
     return this.sqlSession.selectOne("getUser", userId);
   }
@@ -62,6 +104,11 @@ public class FooService {
     return this.userMapper.getUser(userId);
   }
 
+  public User insertTenantUserAndGetIt(User user) {
+    this.tenantUserMapper.insertUser(user);
+    return this.tenantUserMapper.getUser(user.getId());
+  }
+
   public User getUser2(int userId) {
     return this.userMapper2.getUser(userId);
   }
@@ -74,10 +121,161 @@ public class FooService {
     return this.userMapper3.getUser(userId);
   }
 
+  public boolean isSharedMapperInjectedOnce() {
+    return this.sharedUserMapper == this.otherSharedUserMapper;
+  }
+
+  public User getUserFromSharedMapper(int userId) {
+    return this.sharedUserMapper.getSharedUser(userId);
+  }
+
+  public boolean[] getUserAndCheckStartedSessions(int userId) {
+    this.userMapper.getUser(userId);
+    TransactionContext context = TransactionContext.current();
+    return new boolean[] { context.isEnlisted(this.registry.getManager(this.factory1)),
+        context.isEnlisted(this.registry.getManager(this.factory2)) };
+  }
+
+  public void insertUsersAndRollbackAllButTheNewTransaction(User user, User userInNewTransaction)
+      throws RollbackException {
+    this.userMapper.insertUser(user);
+    this.fooServices.get().insertUserInNewTransaction(userInNewTransaction);
+    throw new RollbackException();
+  }
+
+  @Transactional(propagation = Propagation.REQUIRES_NEW)
+  public void insertUserInNewTransaction(User user) {
+    this.userMapper.insertUser(user);
+  }
+
+  public boolean[] checkTransactionAroundNotSupportedCall() {
+    boolean before = TransactionContext.current() != null;
+    boolean during = this.fooServices.get().isTransactionActive();
+    return new boolean[] { before, during, TransactionContext.current() != null };
+  }
+
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public boolean isTransactionActive() {
+    return TransactionContext.current() != null;
+  }
+
+  @Transactional(propagation = Propagation.MANDATORY)
+  public User getUserInMandatoryTransaction(int userId) {
+    return this.userMapper.getUser(userId);
+  }
+
+  public User getUserInNeverCall(int userId) {
+    return this.fooServices.get().getUserWithoutTransaction(userId);
+  }
+
+  @Transactional(propagation = Propagation.NEVER)
+  public User getUserWithoutTransaction(int userId) {
+    return this.userMapper.getUser(userId);
+  }
+
+  public String[] getUser8AroundAReplacement(int userId, Runnable replacement) {
+    String before = this.userMapper8.getUser(userId).getName();
+    replacement.run();
+    return new String[] { before, this.userMapper8.getUser(userId).getName() };
+  }
+
+  @Transactional(readOnly = true)
+  public String[] getUser2TwiceFromReplica(int userId) {
+    return new String[] { this.userMapper2.getUser(userId).getName(), this.dummyUserMapper.getUser(userId).getName() };
+  }
+
+  @Transactional(readOnly = true)
+  public boolean isConnectionReadOnly() throws SQLException {
+    return this.sqlSession.getConnection().isReadOnly();
+  }
+
   public void insertUser(User user) {
     this.userMapper.insertUser(user);
   }
 
+  @Transactional(maxAttempts = 3, retryDelay = 1)
+  public void insertUserAndDeadlockOnce(User user, AtomicInteger attempts) {
+    this.userMapper.insertUser(user);
+    if (attempts.incrementAndGet() == 1) {
+      throw new PersistenceException(new SQLException("Deadlock", "40001"));
+    }
+  }
+
+  public User getCachedUser(int userId) {
+    return this.userMapper.getCachedUser(userId);
+  }
+
+  @Transactional(rollbackOnly = true)
+  public User insertUserInTasksAndGetIt(final User user, ExecutorService executor) throws Exception {
+    PropagatedTransaction transaction = PropagatedTransaction.capture();
+    executor.submit(transaction.wrap(new Runnable() {
+      @Override
+      public void run() {
+        FooService.this.userMapper.insertUser(user);
+      }
+    })).get();
+    return executor.submit(transaction.wrap(new Callable<User>() {
+      @Override
+      public User call() {
+        return FooService.this.userMapper.getUser(user.getId());
+      }
+    })).get();
+  }
+
+  public void insertUserWithSqlSession(User user) {
+    this.sqlSession.insert("insertUser", user);
+  }
+
+  public User insertUserAndGetCachedUser(User user) {
+    this.userMapper.insertUser(user);
+    return this.userMapper.getCachedUser(user.getId());
+  }
+
+  @Transactional(executorType = ExecutorType.BATCH, batchSize = 2, rollbackOnly = true)
+  public long[] insertUsersInBatches(int firstId, int count) {
+    for (int i = firstId; i < firstId + count; i++) {
+      User user = new User();
+      user.setId(i);
+      user.setName("User" + i);
+      this.userMapper.insertUser(user);
+    }
+    String statement = UserMapper.class.getName() + ".insertUser";
+    long flushed = TransactionalBatch.getUpdateCounts().get(statement);
+    return new long[] { flushed, TransactionalBatch.flush().get(statement) };
+  }
+
+  @Transactional(timeout = 1)
+  public void insertUsersTooSlowly(User user, User userAfterTimeout) throws InterruptedException {
+    this.userMapper.insertUser(user);
+    Thread.sleep(1100);
+    this.userMapper.insertUser(userAfterTimeout);
+  }
+
+  public Connection getConnectionOfTransaction() {
+    return this.sqlSession.getConnection();
+  }
+
+  public Cursor<User> insertUserAndGetAllUsers(User user) {
+    this.userMapper.insertUser(user);
+    return this.userMapper.getUsers();
+  }
+
+  public Future<Integer> insertUserAsync(User user) {
+    return this.userMapper.insertUserAsync(user);
+  }
+
+  public Future<User> getUserAsync(int userId) {
+    return this.userMapper.getUserAsync(userId);
+  }
+
+  public Future<Long> updateUserNameAsync(User user) {
+    return this.userMapper.updateUserNameAsync(user);
+  }
+
+  public Future<Void> deleteUserAsync(int userId) {
+    return this.userMapper.deleteUserAsync(userId);
+  }
+
   public void insertUserAndThrowARuntime(User user) {
     this.userMapper.insertUser(user);
     throw new RuntimeException("fail");
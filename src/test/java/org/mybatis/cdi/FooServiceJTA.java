@@ -36,6 +36,20 @@ public class FooServiceJTA {
     this.userMapper.insertUser(user);
   }
 
+  @Interceptors(JtaTransactionInterceptor.class)
+  @Transactional(propagation = Propagation.REQUIRES_NEW)
+  public void insertUserInNewTransaction(User user) {
+    this.userMapper.insertUser(user);
+  }
+
+  @Interceptors(JtaTransactionInterceptor.class)
+  @Transactional(timeout = 1)
+  public void insertUsersTooSlowly(User user, User userAfterTimeout) throws InterruptedException {
+    this.userMapper.insertUser(user);
+    Thread.sleep(1100);
+    this.userMapper.insertUser(userAfterTimeout);
+  }
+
   @Interceptors(JtaTransactionInterceptor.class)
   @Transactional
   public void insertUserWithTransactionalAndFail(User user) {
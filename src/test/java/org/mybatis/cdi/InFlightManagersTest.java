@@ -0,0 +1,99 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.session.SqlSessionManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InFlightManagersTest {
+
+  private final AtomicInteger closed = new AtomicInteger();
+
+  private final Runnable close = new Runnable() {
+    @Override
+    public void run() {
+      InFlightManagersTest.this.closed.incrementAndGet();
+    }
+  };
+
+  @After
+  public void reset() {
+    InFlightManagers.reset();
+  }
+
+  @Test
+  public void shouldRejectAcquiringARetiredManager() {
+    SqlSessionManager manager = mock(SqlSessionManager.class);
+    InFlightManagers.track(manager);
+    InFlightManagers.retire(manager, this.close);
+    Assert.assertEquals(1, this.closed.get());
+    Assert.assertFalse(InFlightManagers.acquire(manager));
+    InFlightManagers.release(manager);
+    Assert.assertEquals(1, this.closed.get());
+  }
+
+  @Test
+  public void shouldCloseARetiredManagerOnceTheLastCallEnds() {
+    SqlSessionManager manager = mock(SqlSessionManager.class);
+    InFlightManagers.track(manager);
+    Assert.assertTrue(InFlightManagers.acquire(manager));
+    InFlightManagers.retain(manager);
+    InFlightManagers.retire(manager, this.close);
+    Assert.assertFalse(InFlightManagers.acquire(manager));
+    Assert.assertEquals(2, InFlightManagers.getInFlight(manager));
+    InFlightManagers.release(manager);
+    Assert.assertEquals(0, this.closed.get());
+    InFlightManagers.release(manager);
+    Assert.assertEquals(1, this.closed.get());
+    Assert.assertFalse(InFlightManagers.acquire(manager));
+  }
+
+  @Test
+  public void shouldCloseARetiredManagerOnceUnderConcurrentCalls() throws Exception {
+    final SqlSessionManager manager = mock(SqlSessionManager.class);
+    InFlightManagers.track(manager);
+    final AtomicInteger afterClose = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          while (InFlightManagers.acquire(manager)) {
+            if (InFlightManagersTest.this.closed.get() > 0) {
+              afterClose.incrementAndGet();
+            }
+            InFlightManagers.release(manager);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    Thread.sleep(50);
+    InFlightManagers.retire(manager, this.close);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(1, this.closed.get());
+    Assert.assertEquals(0, afterClose.get());
+  }
+
+}
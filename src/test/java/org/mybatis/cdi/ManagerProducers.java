@@ -18,11 +18,13 @@ package org.mybatis.cdi;
 import java.io.IOException;
 import java.io.Reader;
 import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Disposes;
 import javax.enterprise.inject.Produces;
 import javax.inject.Named;
+import javax.inject.Singleton;
 
 import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.jdbc.ScriptRunner;
@@ -83,6 +85,22 @@ public class ManagerProducers {
     return createSessionManager(2);
   }
 
+  @ApplicationScoped
+  @ReadReplica("manager2")
+  @Produces
+  @SessionFactoryProvider
+  public SqlSessionFactory createManager2Replica1() throws IOException {
+    return createSessionManager(5);
+  }
+
+  @ApplicationScoped
+  @ReadReplica("manager2")
+  @Produces
+  @SessionFactoryProvider
+  public SqlSessionFactory createManager2Replica2() throws IOException {
+    return createSessionManager(6);
+  }
+
   @ApplicationScoped
   @Produces
   @MySpecialManager
@@ -100,6 +118,30 @@ public class ManagerProducers {
     return createSessionManagerJTA();
   }
 
+  @ApplicationScoped
+  @Named("tenants")
+  @TenantTemplate(maximumSize = 2)
+  @Produces
+  @SessionFactoryProvider
+  public SqlSessionFactory createManager7() throws IOException {
+    return createSessionManager(7);
+  }
+
+  @ApplicationScoped
+  @Named("manager8")
+  @Produces
+  @SessionFactoryProvider
+  public SqlSessionFactory createManager8() throws IOException {
+    return createSessionManager(8);
+  }
+
+  @Singleton
+  @Produces
+  @Named("userCache")
+  public BoundedCache createUserCache() {
+    return new BoundedCache("userCache", 100, 10, TimeUnit.MINUTES);
+  }
+
   @ApplicationScoped
   @Produces
   @Named("unmanaged")
@@ -0,0 +1,65 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WeldJUnit4Runner.class)
+public class MetricsTest {
+
+  @Inject
+  private FooService fooService;
+
+  private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+  @Test
+  public void shouldPublishTransactionAndMapperMetrics() throws Exception {
+    ObjectName transaction = new ObjectName(
+        "org.mybatis.cdi:type=Transaction,name=" + ObjectName.quote(FooService.class.getName() + ".getUser(int)"));
+    ObjectName mapperMethod = new ObjectName(
+        "org.mybatis.cdi:type=MapperMethod,name=" + ObjectName.quote(UserMapper.class.getName() + ".getUser(Integer)"));
+    this.fooService.getUser(1);
+    long committed = (Long) this.server.getAttribute(transaction, "Committed");
+    long calls = (Long) this.server.getAttribute(mapperMethod, "Calls");
+    this.fooService.getUser(1);
+    Assert.assertEquals(committed + 1, this.server.getAttribute(transaction, "Committed"));
+    Assert.assertEquals(calls + 1, this.server.getAttribute(mapperMethod, "Calls"));
+    Assert.assertFalse(this.server.queryNames(new ObjectName("org.mybatis.cdi:type=Factory,*"), null).isEmpty());
+  }
+
+  @Test
+  public void shouldCountRetriedTransactions() throws Exception {
+    User user = new User();
+    user.setId(440);
+    user.setName("User440");
+    this.fooService.insertUserAndDeadlockOnce(user, new AtomicInteger());
+    ObjectName transaction = new ObjectName("org.mybatis.cdi:type=Transaction,name="
+        + ObjectName.quote(FooService.class.getName() + ".insertUserAndDeadlockOnce(User, AtomicInteger)"));
+    Assert.assertEquals(1L, this.server.getAttribute(transaction, "Retried"));
+    Assert.assertEquals(1L, this.server.getAttribute(transaction, "RolledBack"));
+    Assert.assertEquals(1L, this.server.getAttribute(transaction, "Committed"));
+  }
+
+}
@@ -20,21 +20,27 @@ import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import javax.enterprise.inject.spi.AfterBeanDiscovery;
+import javax.enterprise.inject.spi.AfterDeploymentValidation;
 import javax.enterprise.inject.spi.Annotated;
 import javax.enterprise.inject.spi.AnnotatedType;
 import javax.enterprise.inject.spi.Bean;
 import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.BeforeBeanDiscovery;
 import javax.enterprise.inject.spi.InjectionPoint;
-import javax.enterprise.inject.spi.InjectionTarget;
 import javax.enterprise.inject.spi.ProcessAnnotatedType;
-import javax.enterprise.inject.spi.ProcessInjectionTarget;
+import javax.enterprise.inject.spi.ProcessInjectionPoint;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
 
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -48,7 +54,7 @@ public class MybatisExtensionTest {
     MybatisExtension extension = new MybatisExtension();
     Type type = UserMapper.class;
 
-    projectInjectionTarget(extension, type);
+    processInjectionPoint(extension, type);
 
     processAnnotatedType(extension, type);
 
@@ -60,11 +66,72 @@ public class MybatisExtensionTest {
 
   }
 
-  private <T> void projectInjectionTarget(MybatisExtension extension, Type type) {
-    ProcessInjectionTarget<T> event = mock(ProcessInjectionTarget.class);
-    InjectionTarget<T> injectTarget = mock(InjectionTarget.class);
-    Set<InjectionPoint> injectionPoints = new HashSet<InjectionPoint>();
+  @Test
+  public void injectionPointsThatCannotBeMappersShouldBeIgnored() throws Exception {
+
+    MybatisExtension extension = new MybatisExtension();
+
+    processInjectionPoint(extension, String.class);
+
+    AfterBeanDiscovery afterBeanDiscovery = mock(AfterBeanDiscovery.class);
+    BeanManager beanManager = mock(BeanManager.class);
+    extension.afterBeanDiscovery(afterBeanDiscovery, beanManager);
+
+    verify(afterBeanDiscovery, never()).addBean((Bean<?>) any());
+
+  }
+
+  @Test
+  public void indexedMappersShouldBeInstantiatedWithoutTheirTypeBeingScanned() throws Exception {
+
+    MybatisExtension extension = new MybatisExtension();
+    extension.beforeBeanDiscovery(mock(BeforeBeanDiscovery.class));
+
+    processInjectionPoint(extension, UserMapper.class);
+
+    AfterBeanDiscovery afterBeanDiscovery = mock(AfterBeanDiscovery.class);
+    extension.afterBeanDiscovery(afterBeanDiscovery, mock(BeanManager.class));
+
+    verify(afterBeanDiscovery).addBean((Bean<?>) any());
+
+  }
+
+  @Test
+  public void indexShouldListTheMappersAndProducersOfTheCompiledSources() throws Exception {
+    List<String> entries = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        getClass().getClassLoader().getResourceAsStream(MybatisIndexProcessor.INDEX), "UTF-8"));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      entries.add(line);
+    }
+    reader.close();
+
+    assertTrue(entries.contains("mapper org.mybatis.cdi.UserMapper"));
+    assertTrue(entries.contains("producer org.mybatis.cdi.ManagerProducers#createManager1"));
+  }
+
+  @Test
+  public void aMissingCacheShouldBeADeploymentProblem() throws Exception {
+
+    MybatisExtension extension = new MybatisExtension();
+    Type type = MissingCacheMapper.class;
 
+    processInjectionPoint(extension, type);
+
+    processAnnotatedType(extension, type);
+
+    BeanManager beanManager = mock(BeanManager.class);
+    extension.afterBeanDiscovery(mock(AfterBeanDiscovery.class), beanManager);
+    AfterDeploymentValidation afterDeploymentValidation = mock(AfterDeploymentValidation.class);
+    extension.afterDeploymentValidation(afterDeploymentValidation, beanManager);
+
+    verify(afterDeploymentValidation).addDeploymentProblem(any(MybatisCdiConfigurationException.class));
+
+  }
+
+  private <T, X> void processInjectionPoint(MybatisExtension extension, Type type) {
+    ProcessInjectionPoint<T, X> event = mock(ProcessInjectionPoint.class);
     InjectionPoint injectionPoint = mock(InjectionPoint.class);
     Annotated annotated = mock(Annotated.class);
 
@@ -73,12 +140,13 @@ public class MybatisExtensionTest {
     when(annotated.getBaseType()).thenReturn(type);
     when(annotated.getAnnotations()).thenReturn(new HashSet<Annotation>());
 
-    injectionPoints.add(injectionPoint);
+    when(event.getInjectionPoint()).thenReturn(injectionPoint);
 
-    when(event.getInjectionTarget()).thenReturn(injectTarget);
-    when(injectTarget.getInjectionPoints()).thenReturn(injectionPoints);
+    extension.processInjectionPoint(event);
+  }
 
-    extension.processInjectionTarget(event);
+  @Mapper(cache = "missing")
+  public interface MissingCacheMapper {
   }
 
   private <T> void processAnnotatedType(MybatisExtension extension, Type type) {
@@ -0,0 +1,89 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.Dependent;
+import javax.enterprise.inject.Alternative;
+import javax.enterprise.inject.Produces;
+import javax.inject.Named;
+
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.jboss.weld.environment.se.Weld;
+import org.jboss.weld.environment.se.WeldContainer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelInitTest {
+
+  private static final CyclicBarrier BARRIER = new CyclicBarrier(2);
+
+  @Test
+  public void shouldBuildDependentFactoriesConcurrently() throws Exception {
+    System.setProperty(MybatisCdiProperties.INIT_THREADS, "2");
+    Weld weld = new Weld().disableDiscovery().beanClasses(SqlSessionManagerRegistry.class, Producers.class)
+        .alternatives(Producers.class);
+    WeldContainer container = weld.initialize();
+    try {
+      // each producer waits for the other one, so building them one after another times out
+      SqlSessionManagerRegistry registry = container.instance().select(SqlSessionManagerRegistry.class).get();
+      Assert.assertEquals(2, registry.getManagers().size());
+    } finally {
+      weld.shutdown();
+      System.clearProperty(MybatisCdiProperties.INIT_THREADS);
+    }
+  }
+
+  /**
+   * An alternative, so that the containers of the other tests do not pick these factories up.
+   */
+  @Alternative
+  public static class Producers {
+
+    @Produces
+    @Dependent
+    @SessionFactoryProvider
+    @Named("first")
+    public SqlSessionFactory createFirst() throws Exception {
+      return build("first");
+    }
+
+    @Produces
+    @Dependent
+    @SessionFactoryProvider
+    @Named("second")
+    public SqlSessionFactory createSecond() throws Exception {
+      return build("second");
+    }
+
+    private static SqlSessionFactory build(String name) throws Exception {
+      BARRIER.await(10, TimeUnit.SECONDS);
+      UnpooledDataSource dataSource = new UnpooledDataSource("org.apache.derby.jdbc.EmbeddedDriver",
+          "jdbc:derby:memory:" + name + ";create=true", null);
+      return new SqlSessionFactoryBuilder()
+          .build(new Configuration(new Environment(name, new JdbcTransactionFactory(), dataSource)));
+    }
+
+  }
+
+}
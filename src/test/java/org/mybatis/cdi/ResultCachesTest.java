@@ -0,0 +1,101 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.reflect.Method;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResultCachesTest {
+
+  interface CountryMapper {
+
+    @CacheResult(maximumSize = 10, tags = "cities")
+    String getName(Integer id);
+
+    String getCode(Integer id);
+
+  }
+
+  private Method getName;
+
+  @Before
+  public void setUp() throws Exception {
+    ResultCaches.register(CountryMapper.class);
+    this.getName = CountryMapper.class.getMethod("getName", Integer.class);
+  }
+
+  @After
+  public void tearDown() {
+    ResultCaches.reset();
+  }
+
+  @Test
+  public void shouldOnlyCacheTheAnnotatedMethods() throws Exception {
+    Assert.assertTrue(ResultCaches.isActive());
+    Assert.assertNotNull(ResultCaches.get(this.getName));
+    Assert.assertNull(ResultCaches.get(CountryMapper.class.getMethod("getCode", Integer.class)));
+  }
+
+  @Test
+  public void shouldKeyResultsByTargetAndArgumentValues() {
+    Object target = new Object();
+    Assert.assertEquals(ResultCaches.ResultCache.key(target, new Object[] { new int[] { 1, 2 } }),
+        ResultCaches.ResultCache.key(target, new Object[] { new int[] { 1, 2 } }));
+    Assert.assertEquals(ResultCaches.ResultCache.key(target, null),
+        ResultCaches.ResultCache.key(target, new Object[0]));
+    Assert.assertFalse(ResultCaches.ResultCache.key(target, new Object[] { 1 })
+        .equals(ResultCaches.ResultCache.key(new Object(), new Object[] { 1 })));
+  }
+
+  @Test
+  public void shouldCacheNullResults() {
+    ResultCaches.ResultCache cache = ResultCaches.get(this.getName);
+    Object key = ResultCaches.ResultCache.key(this, new Object[] { 1 });
+    cache.put(key, cache.generation(), null);
+    Object cached = cache.get(key);
+    Assert.assertNotNull(cached);
+    Assert.assertNull(ResultCaches.ResultCache.unwrap(cached));
+  }
+
+  @Test
+  public void shouldDropAResultLoadedWhileTheCacheWasInvalidated() {
+    ResultCaches.ResultCache cache = ResultCaches.get(this.getName);
+    Object key = ResultCaches.ResultCache.key(this, new Object[] { 1 });
+    long generation = cache.generation();
+    cache.invalidate();
+    cache.put(key, generation, "stale");
+    Assert.assertNull(cache.get(key));
+  }
+
+  @Test
+  public void shouldInvalidateOnWritesToTheNamespaceAndTagsOutsideOfTransactions() {
+    ResultCaches.ResultCache cache = ResultCaches.get(this.getName);
+    Object key = ResultCaches.ResultCache.key(this, new Object[] { 1 });
+    cache.put(key, cache.generation(), "France");
+    ResultCaches.written("unrelated", false);
+    Assert.assertEquals("France", cache.get(key));
+    ResultCaches.written("cities", false);
+    Assert.assertNull(cache.get(key));
+    cache.put(key, cache.generation(), "France");
+    ResultCaches.written(CountryMapper.class.getName(), false);
+    Assert.assertNull(cache.get(key));
+  }
+
+}
@@ -17,12 +17,42 @@ package org.mybatis.cdi;
 
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.enterprise.inject.spi.BeanManager;
 import javax.inject.Inject;
+import javax.inject.Named;
+import javax.transaction.TransactionalException;
 import javax.transaction.UserTransaction;
 
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -169,4 +199,456 @@ public class TestingIoC {
     Assert.assertEquals(this.serFooService.getUser(1).getName(), unserialized.getUser(1).getName());
   }
 
+  @Test
+  public void shouldOnlyStartSessionsOnTheFactoriesInUse() {
+    boolean[] started = this.fooService.getUserAndCheckStartedSessions(1);
+    Assert.assertTrue(started[0]);
+    Assert.assertFalse(started[1]);
+  }
+
+  @Test
+  public void shouldShareTheProxyOfASharedMapper() {
+    Assert.assertTrue(this.fooService.isSharedMapperInjectedOnce());
+    Assert.assertEquals("1-User1", this.fooService.getUserFromSharedMapper(1).getName());
+  }
+
+  @Test
+  public void shouldFlushBatchedStatementsEveryBatchSizeWrites() {
+    Assert.assertArrayEquals(new long[] { 4, 5 }, this.fooService.insertUsersInBatches(200, 5));
+    Assert.assertNull(this.fooService.getUser(200));
+  }
+
+  @Test
+  public void shouldRouteReadOnlyTransactionsToTheReplicas() throws Exception {
+    Set<String> names = new HashSet<String>();
+    for (int i = 0; i < 2; i++) {
+      String[] replicaNames = this.fooService.getUser2TwiceFromReplica(1);
+      Assert.assertEquals(replicaNames[0], replicaNames[1]);
+      names.add(replicaNames[0]);
+    }
+    Assert.assertEquals(new HashSet<String>(Arrays.asList("5-User1", "6-User1")), names);
+    Assert.assertTrue(this.fooService.isConnectionReadOnly());
+    Assert.assertEquals("2-User1", this.fooService.getUser2(1).getName());
+  }
+
+  @Test
+  public void shouldCommitARequiresNewTransactionWhenTheOuterOneRollsBack() {
+    User user = new User();
+    user.setId(300);
+    user.setName("User300");
+    User userInNewTransaction = new User();
+    userInNewTransaction.setId(301);
+    userInNewTransaction.setName("User301");
+    try {
+      this.fooService.insertUsersAndRollbackAllButTheNewTransaction(user, userInNewTransaction);
+      Assert.fail();
+    } catch (RollbackException expected) {
+      // expected
+    }
+    Assert.assertNull(this.fooService.getUser(300));
+    Assert.assertEquals("User301", this.fooService.getUser(301).getName());
+  }
+
+  @Test
+  public void shouldSuspendTheTransactionForANotSupportedCall() {
+    Assert.assertArrayEquals(new boolean[] { true, false, true },
+        this.fooService.checkTransactionAroundNotSupportedCall());
+  }
+
+  @Test(expected = TransactionalException.class)
+  public void shouldRequireATransactionForAMandatoryCall() {
+    this.fooService.getUserInMandatoryTransaction(1);
+  }
+
+  @Test(expected = TransactionalException.class)
+  public void shouldRejectANeverCallInsideATransaction() {
+    this.fooService.getUserInNeverCall(1);
+  }
+
+  @Test
+  public void shouldRunANeverCallWithoutTransaction() {
+    Assert.assertEquals("1-User1", this.fooService.getUserWithoutTransaction(1).getName());
+  }
+
+  @Test
+  public void shouldRollbackATransactionThatTimesOut() throws Exception {
+    User user = new User();
+    user.setId(320);
+    user.setName("User320");
+    User userAfterTimeout = new User();
+    userAfterTimeout.setId(321);
+    userAfterTimeout.setName("User321");
+    try {
+      this.fooService.insertUsersTooSlowly(user, userAfterTimeout);
+      Assert.fail();
+    } catch (PersistenceException expected) {
+      Assert.assertTrue(expected.getCause() instanceof SQLTimeoutException);
+    }
+    Assert.assertNull(this.fooService.getUser(320));
+    Assert.assertNull(this.fooService.getUser(321));
+  }
+
+  @Test
+  public void shouldRunFutureMapperMethodsInTheirOwnTransaction() throws Exception {
+    User user = new User();
+    user.setId(330);
+    user.setName("User330");
+    Assert.assertEquals(Integer.valueOf(1), this.fooService.insertUserAsync(user).get());
+    Assert.assertEquals(user.getName(), this.fooService.getUserAsync(330).get().getName());
+  }
+
+  @Test
+  public void shouldRun5000TransactionsAsShortTasksOnAPoolOf64Threads() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(64);
+    try {
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int i = 0; i < 5000; i++) {
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            return "1-User1".equals(TestingIoC.this.fooService.getUser(1).getName())
+                && TransactionContext.current() == null;
+          }
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        Assert.assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldContinueATransactionInTasksRunOnOtherThreads() throws Exception {
+    User user = new User();
+    user.setId(341);
+    user.setName("User341");
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      Assert.assertEquals(user.getName(), this.fooService.insertUserInTasksAndGetIt(user, executor).getName());
+    } finally {
+      executor.shutdown();
+    }
+    // rolled back with the transaction the tasks ran in
+    Assert.assertNull(this.fooService.getUser(341));
+  }
+
+  @Inject
+  @Named("manager1")
+  private SqlSession sqlSession1;
+
+  @Test
+  public void shouldRunSqlSessionStatementsWithoutTransactionInTheirOwnSession() {
+    User user = new User();
+    user.setId(342);
+    user.setName("User342");
+    Assert.assertEquals(1, this.sqlSession1.insert("insertUser", user));
+    Assert.assertEquals(user.getName(), this.sqlSession1.<User> selectOne("getUser", 342).getName());
+    Assert.assertEquals(user.getName(), this.fooService.getUser(342).getName());
+  }
+
+  @Test
+  public void shouldCommitAfterTheReturnedCursorIsConsumed() throws Exception {
+    User user = new User();
+    user.setId(340);
+    user.setName("User340");
+    Cursor<User> cursor = this.fooService.insertUserAndGetAllUsers(user);
+    Assert.assertNull(TransactionContext.current());
+    List<String> names = new ArrayList<String>();
+    for (User each : cursor) {
+      names.add(each.getName());
+    }
+    Assert.assertTrue(cursor.isConsumed());
+    Assert.assertEquals("1-User1", names.get(0));
+    Assert.assertTrue(names.contains("User340"));
+    Assert.assertEquals(user.getName(), this.fooService.getUser(340).getName());
+  }
+
+  @Test
+  public void jtaShouldCommitARequiresNewTransactionWhenTheExistingOneRollsBack() throws Exception {
+    User user = new User();
+    user.setId(310);
+    user.setName("User310");
+    this.userTransaction.begin();
+    this.fooServiceJTA.insertUserInNewTransaction(user);
+    this.userTransaction.rollback();
+    Assert.assertEquals(user.getName(), this.fooServiceJTA.getUserWithNoTransaction(user.getId()).getName());
+  }
+
+  @Test
+  public void jtaShouldApplyTheTimeoutOfTheTransactionToItsStatements() throws Exception {
+    User user = new User();
+    user.setId(322);
+    user.setName("User322");
+    User userAfterTimeout = new User();
+    userAfterTimeout.setId(323);
+    userAfterTimeout.setName("User323");
+    try {
+      this.fooServiceJTA.insertUsersTooSlowly(user, userAfterTimeout);
+      Assert.fail();
+    } catch (PersistenceException expected) {
+      Assert.assertTrue(expected.getCause() instanceof SQLTimeoutException);
+    }
+    Assert.assertNull(this.fooServiceJTA.getUserWithNoTransaction(322));
+    Assert.assertNull(this.fooServiceJTA.getUserWithNoTransaction(323));
+  }
+
+  @Inject
+  @JtaManager
+  private SqlSession jtaSqlSession;
+
+  @Test
+  public void jtaShouldShareOneSessionPerFactoryInATransactionWithoutInterceptor() throws Exception {
+    Assume.assumeTrue(JtaSessions.ENABLED);
+    this.userTransaction.begin();
+    try {
+      Assert.assertSame(this.jtaSqlSession.getConnection(), this.jtaSqlSession.getConnection());
+    } finally {
+      this.userTransaction.commit();
+    }
+  }
+
+  @Inject
+  @Named("manager1")
+  private CachedUserMapper cachedUserMapper;
+
+  @Inject
+  @Named("userCache")
+  private BoundedCache userCache;
+
+  @Test
+  public void shouldServeCachedMappersFromTheSelectedCache() {
+    this.userCache.reset();
+    User user = this.cachedUserMapper.getCachedUser(1);
+    Assert.assertSame(user, this.cachedUserMapper.getCachedUser(1));
+    Assert.assertEquals(1, this.userCache.getHits());
+    Assert.assertEquals(1, this.userCache.getMisses());
+  }
+
+  @Test
+  public void shouldInvalidateCachedResultsOnlyWhenWritesCommit() {
+    User cached = this.fooService.getCachedUser(1);
+    Assert.assertSame(cached, this.fooService.getCachedUser(1));
+    Assert.assertNull(this.fooService.getCachedUser(420));
+    User user = new User();
+    user.setId(420);
+    user.setName("User420");
+    try {
+      this.fooService.insertUserAndThrowARuntime(user);
+      Assert.fail();
+    } catch (RuntimeException e) {
+      Assert.assertSame(cached, this.fooService.getCachedUser(1));
+    }
+    Assert.assertEquals("User420", this.fooService.insertUserAndGetCachedUser(user).getName());
+    Assert.assertEquals("User420", this.fooService.getCachedUser(420).getName());
+    Assert.assertNotSame(cached, this.fooService.getCachedUser(1));
+  }
+
+  @Test
+  public void shouldInvalidateCachedResultsOnWritesThroughTheShortIdOfAStatement() {
+    Assert.assertNull(this.fooService.getCachedUser(421));
+    User user = new User();
+    user.setId(421);
+    user.setName("User421");
+    this.fooService.insertUserWithSqlSession(user);
+    Assert.assertEquals("User421", this.fooService.getCachedUser(421).getName());
+  }
+
+  @Inject
+  private TransactionObserver transactionObserver;
+
+  @Test
+  public void shouldFireTransactionEventsAfterCompletion() throws Exception {
+    User user = new User();
+    user.setId(430);
+    user.setName("User430");
+    this.fooService.insertUser(user);
+    TransactionCompleted committed = this.transactionObserver.next("insertUser");
+    Assert.assertTrue(committed instanceof TransactionCommitted);
+    Assert.assertEquals(Arrays.asList(this.factory1), committed.getFactories());
+    Assert.assertTrue(this.transactionObserver.lastThread().startsWith("mybatis-cdi-events-"));
+    try {
+      this.fooService.insertUserAndThrowARuntime(user);
+      Assert.fail();
+    } catch (RuntimeException e) {
+      Assert.assertTrue(this.transactionObserver.next("insertUserAndThrowARuntime") instanceof TransactionRolledBack);
+    }
+  }
+
+  @Test
+  public void shouldRetryATransactionThatDeadlocked() throws Exception {
+    User user = new User();
+    user.setId(440);
+    user.setName("User440");
+    AtomicInteger attempts = new AtomicInteger();
+    this.fooService.insertUserAndDeadlockOnce(user, attempts);
+    Assert.assertEquals(2, attempts.get());
+    Assert.assertEquals("User440", this.fooService.getUser(440).getName());
+  }
+
+  @Inject
+  @Named("tenants")
+  private UserMapper tenantUserMapper;
+
+  @Inject
+  private ThreadTenantResolver tenantResolver;
+
+  @Test
+  public void shouldRouteCallsToTheFactoryOfTheCurrentTenant() throws Exception {
+    try {
+      for (String tenant : Arrays.asList("a", "b", "c")) {
+        ThreadTenantResolver.setTenant(tenant);
+        User user = new User();
+        user.setId(4);
+        user.setName(tenant + "-User4");
+        Assert.assertEquals(tenant + "-User4", this.fooService.insertTenantUserAndGetIt(user).getName());
+        // reported as the template the application produced
+        Assert.assertEquals(Arrays.asList(this.tenantsFactory),
+            this.transactionObserver.next("insertTenantUserAndGetIt").getFactories());
+        Assert.assertEquals(tenant + "-User4", this.tenantUserMapper.getUser(4).getName());
+      }
+      // at most two tenants are kept, so the first one was closed and starts over
+      Assert.assertEquals(Arrays.asList("a"), this.tenantResolver.getDestroyed());
+      ThreadTenantResolver.setTenant("a");
+      Assert.assertNull(this.tenantUserMapper.getUser(4));
+      ThreadTenantResolver.setTenant(null);
+      Assert.assertEquals("7-User1", this.tenantUserMapper.getUser(1).getName());
+      Assert.assertNull(this.tenantUserMapper.getUser(4));
+    } finally {
+      ThreadTenantResolver.setTenant(null);
+    }
+  }
+
+  @Inject
+  @Named("tenants")
+  private SqlSessionFactory tenantsFactory;
+
+  @Inject
+  @Named("manager8")
+  private UserMapper userMapper8;
+
+  @Inject
+  @Named("manager8")
+  private SqlSessionFactory factory8;
+
+  @Inject
+  private SqlSessionManagerRegistry registry;
+
+  @Test
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void shouldReplaceAndRetireFactoriesAtRuntime() throws Exception {
+    Assert.assertEquals("8-User1", this.userMapper8.getUser(1).getName());
+    SqlSessionManager original = this.registry.getManager(this.factory8);
+    SqlSessionManager failover = this.registry.replace(this.factory8, buildFactory(6));
+    Assert.assertSame(failover, this.registry.getManager(this.factory8));
+    Assert.assertFalse(this.registry.getManagers().contains(original));
+    Assert.assertEquals("6-User1", this.userMapper8.getUser(1).getName());
+    this.registry.replace(this.factory8, buildFactory(8));
+    Assert.assertEquals("8-User1", this.userMapper8.getUser(1).getName());
+
+    SqlSessionFactory added = buildFactory(5);
+    MyBatisBean bean = new MyBatisBean("added", (Class) UserMapper.class, null, null);
+    bean.bind(this.registry.register(added));
+    UserMapper mapper = (UserMapper) bean.create(null);
+    Assert.assertEquals("5-User1", mapper.getUser(1).getName());
+    try {
+      this.registry.register(added);
+      Assert.fail("A factory cannot be registered twice");
+    } catch (MybatisCdiConfigurationException e) {
+      // expected
+    }
+    this.registry.retire(added);
+    Assert.assertNull(this.registry.getManager(added));
+    try {
+      mapper.getUser(1);
+      Assert.fail("The mappers of a retired factory cannot be used");
+    } catch (MybatisCdiConfigurationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void shouldKeepATransactionOnTheFactoryItStartedOn() throws Exception {
+    final SqlSessionFactory failover = buildFactory(6);
+    String[] names = this.fooService.getUser8AroundAReplacement(1, new Runnable() {
+      @Override
+      public void run() {
+        TestingIoC.this.registry.replace(TestingIoC.this.factory8, failover);
+      }
+    });
+    try {
+      Assert.assertArrayEquals(new String[] { "8-User1", "8-User1" }, names);
+      Assert.assertEquals("6-User1", this.userMapper8.getUser(1).getName());
+    } finally {
+      this.registry.replace(this.factory8, buildFactory(8));
+    }
+  }
+
+  @Test
+  public void shouldConvertTheRowCountOfFutureMapperMethods() throws Exception {
+    User user = new User();
+    user.setId(340);
+    user.setName("User340");
+    this.fooService.insertUserAsync(user).get();
+    user.setName("User340-renamed");
+    Assert.assertEquals(Long.valueOf(1), this.fooService.updateUserNameAsync(user).get());
+    Assert.assertEquals(user.getName(), this.fooService.getUserAsync(340).get().getName());
+    Assert.assertNull(this.fooService.deleteUserAsync(340).get());
+    Assert.assertNull(this.fooService.getUserAsync(340).get());
+  }
+
+  @Inject
+  private BeanManager beanManager;
+
+  @Inject
+  @Named("manager1")
+  private SqlSessionFactory factory1;
+
+  @Test
+  public void shouldDispatchMapperCallsThroughBoundMapperMethods() throws Exception {
+    MyBatisBean bean = getManager1Bean(UserMapper.class);
+    Method getUser = UserMapper.class.getMethod("getUser", Integer.class);
+    Assert.assertEquals("1-User1", this.fooService.getUser(1).getName());
+    Assert.assertTrue(bean.isBound(getUser));
+    Configuration configuration = bean.getManager(null).getConfiguration();
+    Assert.assertSame(bean.getMapperMethod(getUser, configuration), bean.getMapperMethod(getUser, configuration));
+  }
+
+  @Test
+  public void shouldBindMapperBeansToTheirManagerAtDeployment() throws Exception {
+    MyBatisBean bean = getManager1Bean(UserMapper.class);
+    Assert.assertTrue(bean.isBound());
+    // bound beans need no creational context to find their manager
+    Assert.assertSame(this.registry.getManager(this.factory1), bean.getManager(null));
+  }
+
+  @Test
+  public void shouldRejectAReplacementWithoutTheStatementsOfTheFactory() {
+    SqlSessionFactory empty = new SqlSessionFactoryBuilder()
+        .build(new Configuration(new Environment("empty", new JdbcTransactionFactory(), new UnpooledDataSource())));
+    try {
+      this.registry.replace(this.factory8, empty);
+      Assert.fail("A factory without the statements of manager8 cannot replace it");
+    } catch (MybatisCdiConfigurationException e) {
+      // expected
+    }
+    Assert.assertEquals("8-User1", this.userMapper8.getUser(1).getName());
+  }
+
+  private MyBatisBean getManager1Bean(Class<?> type) throws Exception {
+    // with the @Named("manager1") qualifier of the factory1 field
+    Named named = TestingIoC.class.getDeclaredField("factory1").getAnnotation(Named.class);
+    return (MyBatisBean) this.beanManager.resolve(this.beanManager.getBeans(type, named));
+  }
+
+  private static SqlSessionFactory buildFactory(int n) throws IOException {
+    Reader reader = Resources.getResourceAsReader("org/mybatis/cdi/mybatis-config_" + n + ".xml");
+    try {
+      return new SqlSessionFactoryBuilder().build(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
 }
\ No newline at end of file
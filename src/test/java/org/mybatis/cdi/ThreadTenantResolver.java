@@ -0,0 +1,86 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+
+@ApplicationScoped
+public class ThreadTenantResolver implements TenantResolver {
+
+  private static final ThreadLocal<String> TENANT = new ThreadLocal<String>();
+
+  private final List<String> destroyed = new CopyOnWriteArrayList<String>();
+
+  public static void setTenant(String tenant) {
+    TENANT.set(tenant);
+  }
+
+  @Override
+  public String getTenant() {
+    return TENANT.get();
+  }
+
+  @Override
+  public DataSource createDataSource(String tenant) {
+    UnpooledDataSource dataSource = new UnpooledDataSource("org.apache.derby.jdbc.EmbeddedDriver",
+        "jdbc:derby:memory:tenant_" + tenant + ";create=true", null);
+    try {
+      Connection conn = dataSource.getConnection();
+      try {
+        Reader reader = Resources.getResourceAsReader("org/mybatis/cdi/CreateDB_7.sql");
+        ScriptRunner runner = new ScriptRunner(conn);
+        runner.setLogWriter(null);
+        runner.runScript(reader);
+        reader.close();
+      } finally {
+        conn.close();
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return dataSource;
+  }
+
+  @Override
+  public void destroyDataSource(String tenant, DataSource dataSource) {
+    try {
+      DriverManager.getConnection("jdbc:derby:memory:tenant_" + tenant + ";drop=true").close();
+    } catch (SQLException e) {
+      // derby reports a successful drop with an exception
+    }
+    this.destroyed.add(tenant);
+  }
+
+  public List<String> getDestroyed() {
+    return this.destroyed;
+  }
+
+}
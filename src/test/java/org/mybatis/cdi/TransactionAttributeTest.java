@@ -0,0 +1,118 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Method;
+
+import javax.enterprise.inject.Stereotype;
+import javax.interceptor.InvocationContext;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TransactionAttributeTest {
+
+  @Stereotype
+  @Transactional(readOnly = true)
+  @Target(ElementType.TYPE)
+  @Retention(RetentionPolicy.RUNTIME)
+  @interface ReadOnlyService {
+  }
+
+  @Transactional(timeout = 5)
+  @Target({ ElementType.METHOD, ElementType.TYPE })
+  @Retention(RetentionPolicy.RUNTIME)
+  @interface Timed {
+  }
+
+  @Timed
+  @Target(ElementType.METHOD)
+  @Retention(RetentionPolicy.RUNTIME)
+  @interface Reporting {
+  }
+
+  @ReadOnlyService
+  static class Service {
+
+    public void read() {
+    }
+
+    @Timed
+    public void timed() {
+    }
+
+    @Reporting
+    public void report() {
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void write() {
+    }
+
+  }
+
+  static class PlainService {
+
+    public void run() {
+    }
+
+  }
+
+  static class AnnotationLookupInterceptor extends LocalTransactionInterceptor {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected Transactional getTransactionalAnnotation(InvocationContext ctx) {
+      return ReadOnlyService.class.getAnnotation(Transactional.class);
+    }
+
+  }
+
+  @Test
+  public void shouldResolveAttributesOncePerMethod() throws Exception {
+    Method method = Service.class.getMethod("read");
+    Assert.assertSame(TransactionAttribute.of(method), TransactionAttribute.of(method));
+  }
+
+  @Test
+  public void shouldResolveAttributesOfStereotypesAndMetaAnnotations() throws Exception {
+    Assert.assertTrue(TransactionAttribute.of(Service.class.getMethod("read")).isReadOnly());
+    Assert.assertEquals(5, TransactionAttribute.of(Service.class.getMethod("timed")).getTimeout());
+    Assert.assertEquals(5, TransactionAttribute.of(Service.class.getMethod("report")).getTimeout());
+    TransactionAttribute write = TransactionAttribute.of(Service.class.getMethod("write"));
+    Assert.assertEquals(Propagation.REQUIRES_NEW, write.getPropagation());
+    Assert.assertFalse(write.isReadOnly());
+    Assert.assertEquals(Propagation.REQUIRED, TransactionAttribute.of(PlainService.class.getMethod("run"))
+        .getPropagation());
+  }
+
+  @Test
+  public void shouldUseTheAnnotationOfAnInterceptorThatLooksItUp() throws Exception {
+    InvocationContext ctx = mock(InvocationContext.class);
+    when(ctx.getMethod()).thenReturn(PlainService.class.getMethod("run"));
+    Assert.assertFalse(new LocalTransactionInterceptor().getTransactionAttribute(ctx).isReadOnly());
+    Assert.assertTrue(new AnnotationLookupInterceptor().getTransactionAttribute(ctx).isReadOnly());
+  }
+
+}
@@ -0,0 +1,69 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.session.TransactionIsolationLevel;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TransactionContextTest {
+
+  @Test
+  public void shouldCloseEverySessionWhenOneFailsToClose() throws Exception {
+    SqlSession failing = mockSession(new PersistenceException("first"));
+    SqlSession alsoFailing = mockSession(new PersistenceException("second"));
+    SqlSession closing = mock(SqlSession.class);
+    Method method = TransactionContextTest.class.getMethod("shouldCloseEverySessionWhenOneFailsToClose");
+    TransactionContext context = TransactionContext.begin(TransactionAttribute.of(method), method);
+    try {
+      TransactionContext.enlist(mockManager(failing));
+      TransactionContext.enlist(mockManager(alsoFailing));
+      TransactionContext.enlist(mockManager(closing));
+      context.close();
+      Assert.fail("The failure to close a session should be thrown");
+    } catch (PersistenceException e) {
+      Assert.assertEquals("first", e.getMessage());
+    }
+    verify(alsoFailing).close();
+    verify(closing).close();
+    Assert.assertNull(TransactionContext.current());
+  }
+
+  private static SqlSession mockSession(RuntimeException failure) {
+    SqlSession session = mock(SqlSession.class);
+    doThrow(failure).when(session).close();
+    return session;
+  }
+
+  private static SqlSessionManager mockManager(SqlSession session) {
+    SqlSessionManager manager = mock(SqlSessionManager.class);
+    when(manager.openSession(any(ExecutorType.class), (TransactionIsolationLevel) any())).thenReturn(session);
+    return manager;
+  }
+
+}
@@ -0,0 +1,54 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+
+@ApplicationScoped
+public class TransactionObserver {
+
+  private final BlockingQueue<TransactionCompleted> events = new LinkedBlockingQueue<TransactionCompleted>();
+
+  private final BlockingQueue<String> threads = new LinkedBlockingQueue<String>();
+
+  public void onCompletion(@Observes TransactionCompleted event) {
+    this.threads.add(Thread.currentThread().getName());
+    this.events.add(event);
+  }
+
+  public TransactionCompleted next(String methodName) throws InterruptedException {
+    while (true) {
+      TransactionCompleted event = this.events.poll(5, TimeUnit.SECONDS);
+      if (event == null || event.getMethod().getName().equals(methodName)) {
+        return event;
+      }
+    }
+  }
+
+  public String lastThread() {
+    String last = null;
+    for (String thread : this.threads) {
+      last = thread;
+    }
+    return last;
+  }
+
+}
@@ -15,11 +15,29 @@
  */
 package org.mybatis.cdi;
 
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cursor.Cursor;
+
 @Mapper
 public interface UserMapper {
 
   User getUser(Integer id);
 
+  @CacheResult(ttl = 10, unit = TimeUnit.MINUTES)
+  User getCachedUser(Integer id);
+
   void insertUser(User user);
 
+  Cursor<User> getUsers();
+
+  Future<User> getUserAsync(Integer id);
+
+  Future<Integer> insertUserAsync(User user);
+
+  Future<Long> updateUserNameAsync(User user);
+
+  Future<Void> deleteUserAsync(Integer id);
+
 }
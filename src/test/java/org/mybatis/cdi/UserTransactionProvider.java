@@ -17,6 +17,8 @@ package org.mybatis.cdi;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Produces;
+import javax.transaction.TransactionManager;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.transaction.UserTransaction;
 
 import bitronix.tm.TransactionManagerServices;
@@ -29,4 +31,16 @@ public class UserTransactionProvider {
     return TransactionManagerServices.getTransactionManager();
   }
 
+  @Produces
+  @ApplicationScoped
+  public TransactionManager initTM() {
+    return TransactionManagerServices.getTransactionManager();
+  }
+
+  @Produces
+  @ApplicationScoped
+  public TransactionSynchronizationRegistry initTSR() {
+    return TransactionManagerServices.getTransactionSynchronizationRegistry();
+  }
+
 }
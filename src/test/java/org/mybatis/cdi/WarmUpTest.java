@@ -0,0 +1,52 @@
+/**
+ *    Copyright 2013-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.cdi;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import javax.enterprise.inject.spi.BeanManager;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WeldJUnit4Runner.class)
+public class WarmUpTest {
+
+  @Inject
+  private BeanManager beanManager;
+
+  @Inject
+  @Named("manager1")
+  private UserMapper userMapper;
+
+  @Test
+  public void shouldBindTheMapperMethodsOnceTheDeploymentIsValidated() throws Exception {
+    Named named = WarmUpTest.class.getDeclaredField("userMapper").getAnnotation(Named.class);
+    MyBatisBean bean = (MyBatisBean) this.beanManager.resolve(this.beanManager.getBeans(UserMapper.class, named));
+    Assert.assertTrue(bean.isBound());
+    for (Method method : UserMapper.class.getMethods()) {
+      if (Modifier.isAbstract(method.getModifiers())) {
+        Assert.assertTrue(method.getName() + " should be bound", bean.isBound(method));
+      }
+    }
+    Assert.assertEquals("1-User1", this.userMapper.getUser(1).getName());
+  }
+
+}
@@ -0,0 +1,24 @@
+--
+--    Copyright 2013-2016 the original author or authors.
+--
+--    Licensed under the Apache License, Version 2.0 (the "License");
+--    you may not use this file except in compliance with the License.
+--    You may obtain a copy of the License at
+--
+--       http://www.apache.org/licenses/LICENSE-2.0
+--
+--    Unless required by applicable law or agreed to in writing, software
+--    distributed under the License is distributed on an "AS IS" BASIS,
+--    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--    See the License for the specific language governing permissions and
+--    limitations under the License.
+--
+
+CREATE TABLE USERS (
+    id integer not null,
+    name varchar(80) not null
+);
+
+insert into users (id, name) values(1, '6-User1');
+insert into users (id, name) values(2, '6-User2');
+insert into users (id, name) values(3, '6-User3');